@@ -30,8 +30,8 @@ public class TetrisApp extends Application {
     @Override
     public void start(Stage primaryStage) {
         this.model = new TetrisModel(); // create a model
+        this.model.startGame(); //begin, before the view starts playing the model on its own thread
         this.view = new TetrisView(model, primaryStage); //tie the model to the view
-        this.model.startGame(); //begin
     }
 
 }
@@ -1,9 +1,40 @@
+import model.AnytimePilot;
+import model.AutoPilot;
+import model.BagPieceSource;
+import model.BoardFeatures;
+import model.BudgetedPilot;
+import model.LookAheadPilot;
+import model.MovePlanner;
+import model.PieceRegistry;
+import model.PieceTable;
+import model.PilotRegistry;
+import model.ReplayPlayer;
+import model.ReplayRecorder;
+import model.RolloutPilot;
+import model.SaveFile;
+import model.SequencePieceSource;
+import model.TetrisModel;
 import model.TetrisPiece;
+import model.TetrisSnapshot;
 import model.TetrisBoard;
+import model.TranspositionTable;
+import model.UniformPieceSource;
+import simulation.HeadlessRunner;
+import simulation.WeightTuner;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
 public class TetrisTests {
 
     //Piece tests
@@ -31,6 +62,11 @@ public class TetrisTests {
             counter++;
         }
 
+        //a body with a repeated block never rotates back onto itself, but the ring still closes
+        TetrisPiece offset = TetrisPiece.makeFastRotations(new TetrisPiece("0 0  0 0  1 0"));
+        int rotations = 1;
+        for (TetrisPiece p = offset.fastRotation(); p != offset; p = p.fastRotation()) rotations++;
+        assertTrue(rotations <= 4);
     }
 
     @Test
@@ -105,5 +141,666 @@ public class TetrisTests {
         assertEquals(2, rcleared);
     }
 
+    @Test
+    void testClearRowsShiftsDown() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece pieceA = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+
+        //two full rows with a stick standing on the left edge
+        for (int x = 0; x < 10; x += 2) {
+            board.placePiece(pieceA, x, 0); board.commit();
+        }
+        board.placePiece(stick, 0, 2); board.commit();
+
+        assertEquals(2, board.clearRows());
+        assertEquals(4, board.getColumnHeight(0));
+        assertEquals(0, board.getColumnHeight(1));
+        for (int y = 0; y < 4; y++) {
+            assertTrue(board.getGrid(0, y));
+            assertEquals(1, board.getRowWidth(y));
+        }
+        assertFalse(board.getGrid(0, 4));
+        assertEquals(4, board.getMaxHeight());
+        assertEquals(2, board.getRowsCleared());
+        assertEquals(0, board.clearRows());
+        assertEquals(2, board.getRowsCleared());
+    }
+
+    @Test
+    void testClearRowsDropsColumnToLowerBlock() {
+        TetrisBoard board = new TetrisBoard(4,10); board.commit();
+        TetrisPiece stick = new TetrisPiece("0 0  1 0  2 0  3 0"); //lying flat
+
+        //row 0 has a gap in column 3, row 2 is full, so column 3's only block gets cleared
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0"), 0, 0); board.commit();
+        board.placePiece(stick, 0, 2); board.commit();
+
+        assertEquals(1, board.clearRows());
+        assertEquals(1, board.getColumnHeight(0));
+        assertEquals(0, board.getColumnHeight(3));
+        assertEquals(3, board.getRowWidth(0));
+        assertEquals(0, board.getRowWidth(2));
+    }
+
+    @Test
+    void testUndo() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece pieceA = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        for (int x = 0; x < 8; x += 2) {
+            board.placePiece(pieceA, x, 0); board.commit();
+        }
+        String before = board.toString();
+
+        //undo reverts both the placement and the rows it cleared
+        assertEquals(TetrisBoard.ADD_ROW_FILLED, board.placePiece(pieceA, 8, 0));
+        assertEquals(2, board.clearRows());
+        board.undo();
+        assertEquals(before, board.toString());
+        assertEquals(8, board.getRowWidth(0));
+        assertEquals(2, board.getColumnHeight(7));
+        assertEquals(0, board.getColumnHeight(8));
+
+        //a second undo does nothing
+        board.undo();
+        assertEquals(before, board.toString());
+    }
+
+    @Test
+    void testCheckpoints() {
+        TetrisBoard board = new TetrisBoard(4,10,2); board.commit();
+        TetrisPiece pieceA = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        board.placePiece(pieceA, 0, 0); board.commit();
+        String start = board.toString();
+
+        board.pushCheckpoint();
+        board.placePiece(pieceA, 2, 0); board.commit();
+        assertEquals(2, board.clearRows());
+        String cleared = board.toString();
+
+        board.pushCheckpoint();
+        board.placePiece(pieceA, 0, 0); board.commit();
+        board.placePiece(pieceA, 2, 0);
+        board.popCheckpoint();
+        assertEquals(cleared, board.toString());
+
+        board.popCheckpoint();
+        assertEquals(start, board.toString());
+        assertEquals(2, board.getColumnHeight(1));
+        assertEquals(0, board.getCheckpointDepth());
+        assertThrows(IllegalStateException.class, () -> board.popCheckpoint());
+    }
+
+    @Test
+    void testPlacementHeights() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece pieceA = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece pieceB = new TetrisPiece(TetrisPiece.S1_STR);
+        board.placePiece(pieceA, 3, 0); board.commit();
+        board.placePiece(pieceA, 3, 2); board.commit();
+
+        int[] heights = new int[board.getWidth()];
+        assertEquals(8, board.placementHeights(pieceB, heights));
+        for (int x = 0; x < 8; x++) {
+            assertEquals(board.placementHeight(pieceB, x), heights[x]);
+        }
+        assertEquals(4, heights[2]);
+        assertEquals(3, heights[1]);
+        assertEquals(0, heights[7]);
+    }
+
+    @Test
+    void testAutoPilotHeadsForClear() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece flat = new TetrisPiece("0 0  1 0  2 0  3 0");
+        board.placePiece(flat, 0, 0); board.commit();
+        board.placePiece(flat, 4, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0"), 8, 0); board.commit();
+
+        //a standing stick falling in the middle should go right, into the gap at x = 9
+        TetrisPiece stick = TetrisPiece.makeFastRotations(new TetrisPiece(TetrisPiece.STICK_STR));
+        board.placePiece(stick, 4, 20);
+        String before = board.toString();
+        AutoPilot pilot = new AutoPilot();
+        assertEquals(TetrisModel.MoveType.RIGHT, pilot.bestMove(board, stick, 4, 20));
+        assertEquals(TetrisModel.MoveType.DROP, pilot.bestMove(board, stick, 9, 20));
+        assertEquals(before, board.toString(), "the pilot should not change the board");
+    }
+
+    @Test
+    void testEvaluateBoard() {
+        TetrisBoard board = new TetrisBoard(4,10); board.commit();
+        board.placePiece(new TetrisPiece("0 0  0 1  0 2"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0"), 1, 1); board.commit();
+
+        //heights 3,2,2,0: aggregate 7, bumpiness 1+0+2, two holes under the bar
+        AutoPilot pilot = new AutoPilot(new double[]{1, 0, 0, 0});
+        assertEquals(7.0, pilot.evaluateBoard(board), 1e-9);
+        pilot = new AutoPilot(new double[]{0, 1, 0, 0});
+        assertEquals(2.0, pilot.evaluateBoard(board), 1e-9);
+        pilot = new AutoPilot(new double[]{0, 0, 1, 0});
+        assertEquals(3.0, pilot.evaluateBoard(board), 1e-9);
+    }
+
+    @Test
+    void testBoardFeatures() {
+        TetrisBoard board = new TetrisBoard(4,10); board.commit();
+        int[] features = board.getFeatures(new int[BoardFeatures.COUNT]);
+        assertEquals(0, features[BoardFeatures.MAX_HEIGHT]);
+        assertEquals(4, features[BoardFeatures.COLUMN_TRANSITIONS]); //the floor against every empty column
+
+        board.placePiece(new TetrisPiece("0 0  0 1  0 2"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0"), 1, 1); board.commit();
+        board.getFeatures(features);
+        assertEquals(7, features[BoardFeatures.AGGREGATE_HEIGHT]);
+        assertEquals(3, features[BoardFeatures.MAX_HEIGHT]);
+        assertEquals(3, features[BoardFeatures.BUMPINESS]);
+        assertEquals(2, features[BoardFeatures.HOLES]);
+        assertEquals(1, features[BoardFeatures.ROWS_WITH_HOLES]);
+        assertEquals(6, features[BoardFeatures.ROW_TRANSITIONS]); //two in each of the 3 rows
+        assertEquals(8, features[BoardFeatures.COLUMN_TRANSITIONS]); //1 + 3 + 3 + 1
+        assertEquals(1, features[BoardFeatures.WELLS]); //x = 3 beside the bar
+
+        double[] weights = new double[AutoPilot.WEIGHT_COUNT];
+        weights[AutoPilot.WELLS] = 1;
+        weights[AutoPilot.ROW_TRANSITIONS] = 10;
+        assertEquals(61.0, new AutoPilot(weights).evaluateBoard(board), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new AutoPilot(new double[5]));
+
+        //a well three deep counts 1 + 2 + 3
+        TetrisBoard well = new TetrisBoard(3,10); well.commit();
+        TetrisPiece bar = new TetrisPiece("0 0  0 1  0 2");
+        well.placePiece(bar, 0, 0); well.commit();
+        well.placePiece(bar, 2, 0); well.commit();
+        assertEquals(6, well.getFeatures(features)[BoardFeatures.WELLS]);
+    }
+
+    @Test
+    void testMovePlannerTucks() {
+        TetrisModel model = new TetrisModel(PieceRegistry.register("testDominoes", "0 0  1 0"));
+        TetrisBoard board = model.getBoard();
+
+        //row 0 is filled up to x = 6, and a block hangs over x = 9 at y = 1;
+        //a domino dropped straight down can't reach (9, 0), but one slid right along the floor can
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0"), 9, 1); board.commit();
+
+        MovePlanner planner = new MovePlanner();
+        model.setPilot(planner);
+        model.setAutoPilotMode();
+        model.startGame(new SequencePieceSource(new int[]{0}));
+        while (model.getCount() < 1) model.modelTick(TetrisModel.MoveType.DOWN);
+
+        assertTrue(board.getGrid(8, 0) && board.getGrid(9, 0), "the domino should be tucked under the overhang");
+        assertFalse(board.getGrid(7, 0));
+        assertEquals(2, planner.getPlanCount(), "one plan per piece");
+    }
+
+    @Test
+    void testAnytimePilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece flat = new TetrisPiece("0 0  1 0  2 0  3 0");
+        board.placePiece(flat, 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0  0 1"), 5, 0); board.commit();
+        TetrisPiece l = TetrisPiece.getPieces()[1];
+        board.placePiece(l, 4, 20);
+
+        //with no time to spare it still answers, from the first depth, which is an AutoPilot move
+        AnytimePilot hurried = new AnytimePilot(0.5, 1, 2, new AutoPilot());
+        assertEquals(new AutoPilot().bestMove(board, l, 4, 20), hurried.bestMove(board, l, 4, 20));
+        assertEquals(1, hurried.getCompletedDepth());
+
+        //with all the time it needs it searches as deep as LookAheadPilot
+        AnytimePilot patient = new AnytimePilot(0.5, 10_000_000_000L, 2, new AutoPilot());
+        patient.setTickInterval(20_000_000_000L);
+        assertEquals(new LookAheadPilot(2, 1).bestMove(board, l, 4, 20), patient.bestMove(board, l, 4, 20));
+        assertEquals(2, patient.getCompletedDepth());
+        assertEquals(1, patient.getDecisions());
+        assertTrue(patient.getLastLatencyNanos() > 0);
+        assertEquals(patient.getLastLatencyNanos(), patient.getMaxLatencyNanos());
+    }
+
+    @Test
+    void testRolloutPilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0  0 1"), 5, 0); board.commit();
+        TetrisPiece l = TetrisPiece.getPieces()[1];
+        board.placePiece(l, 4, 20);
+        long hash = board.getHash();
+
+        //rollouts that stop at the placement score it as AutoPilot does
+        RolloutPilot greedy = new RolloutPilot(6, 0, 8, 1, 1);
+        assertEquals(new AutoPilot().bestMove(board, l, 4, 20), greedy.bestMove(board, l, 4, 20));
+        assertEquals(hash, board.getHash());
+
+        //the number of rollouts follows the time there is: one round with none, all of them with plenty
+        RolloutPilot hurried = new RolloutPilot(6, 3, 64, 2, 1, 0.5, 1, new AutoPilot());
+        hurried.bestMove(board, l, 4, 20);
+        assertEquals(8, hurried.getLastRollouts());
+        RolloutPilot patient = new RolloutPilot(6, 3, 64, 2, 1, 0.5, 10_000_000_000L, new AutoPilot());
+        patient.setTickInterval(20_000_000_000L);
+        patient.bestMove(board, l, 4, 20);
+        assertEquals(64, patient.getLastRollouts());
+        assertEquals(1, patient.getDecisions());
+
+        //with more threads than placements, each placement's rollouts are split between them, to the same end
+        RolloutPilot single = new RolloutPilot(2, 3, 64, 1, 1, 0.5, 10_000_000_000L, new AutoPilot());
+        RolloutPilot split = new RolloutPilot(2, 3, 64, 4, 1, 0.5, 10_000_000_000L, new AutoPilot());
+        single.setTickInterval(20_000_000_000L);
+        split.setTickInterval(20_000_000_000L);
+        assertEquals(single.bestMove(board, l, 4, 20), split.bestMove(board, l, 4, 20));
+        assertEquals(64, split.getLastRollouts());
+
+        //the placement is decided once per piece, and a seed makes the games it plays reproducible
+        patient.bestMove(board, l, 4, 19);
+        assertEquals(1, patient.getDecisions());
+        int[] scores = new int[2];
+        for (int i = 0; i < scores.length; i++) {
+            TetrisModel model = new TetrisModel();
+            RolloutPilot pilot = new RolloutPilot(4, 2, 16, 2, 7, 0.5, 10_000_000_000L, new AutoPilot());
+            pilot.setTickInterval(20_000_000_000L);
+            model.setPilot(pilot);
+            model.setAutoPilotMode();
+            model.startGame(new UniformPieceSource(3, 7));
+            while (model.isGameOn() && model.getCount() < 40) model.modelTick(TetrisModel.MoveType.DOWN);
+            assertTrue(model.isGameOn());
+            scores[i] = model.getScore();
+        }
+        assertEquals(scores[0], scores[1]);
+    }
+
+    @Test
+    void testAsyncPlanning() throws InterruptedException {
+        Semaphore gate = new Semaphore(0); //the pilot only answers when let through
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicInteger calls = new AtomicInteger();
+        TetrisModel model = new TetrisModel();
+        model.setPilot((board, piece, x, y) -> {
+            calls.incrementAndGet();
+            try {
+                gate.acquire();
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                return TetrisModel.MoveType.DOWN;
+            }
+            return TetrisModel.MoveType.LEFT;
+        });
+        model.setAsyncPlanning(true);
+        model.setAutoPilotMode();
+        model.startGame(new SequencePieceSource(new int[] {0, 0}));
+        int spawnX = fallingPieceX(model.getBoard());
+
+        //the pilot is still thinking, so the tick is gravity alone
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        assertEquals(spawnX, fallingPieceX(model.getBoard()));
+        assertEquals(1, model.getMissedPlans());
+
+        //once its move is ready, the next tick plays it
+        gate.release();
+        awaitPlan(model);
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        assertEquals(spawnX - 1, fallingPieceX(model.getBoard()));
+        assertEquals(1, model.getMissedPlans());
+
+        //the plan for the next move is cancelled when the piece lands
+        for (int i = 0; i < 500 && calls.get() < 2; i++) Thread.sleep(10);
+        model.modelTick(TetrisModel.MoveType.DROP);
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        assertEquals(1, model.getCount());
+        for (int i = 0; i < 500 && !cancelled.get(); i++) Thread.sleep(10);
+        assertTrue(cancelled.get());
 
+        //and the new piece gets a plan of its own
+        gate.release();
+        awaitPlan(model);
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        assertEquals(spawnX - 1, fallingPieceX(model.getBoard()));
+        model.stopGame();
+
+        //a pilot that fails does not end the game; the moves it could not plan come from a greedy pilot
+        TetrisModel failing = new TetrisModel();
+        failing.setPilot((board, piece, x, y) -> { throw new IllegalStateException("test pilot failure"); });
+        failing.setAsyncPlanning(true);
+        failing.setAutoPilotMode();
+        failing.startGame(new SequencePieceSource(new int[] {0}));
+        for (int i = 0; i < 100 && failing.isGameOn(); i++) {
+            for (int j = 0; j < 100 && !failing.isPlanReady(); j++) Thread.sleep(1);
+            failing.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertTrue(failing.getCount() > 0);
+        failing.stopGame();
+    }
+
+    private static void awaitPlan(TetrisModel model) throws InterruptedException {
+        for (int i = 0; i < 500 && !model.isPlanReady(); i++) Thread.sleep(10);
+        assertTrue(model.isPlanReady());
+    }
+
+    private static int fallingPieceX(TetrisBoard board) { //leftmost block above the pieces that have landed
+        for (int x = 0; x < board.getWidth(); x++) {
+            for (int y = board.getHeight() / 2; y < board.getHeight(); y++) {
+                if (board.getGrid(x, y)) return x;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void testPilotRegistry() {
+        //the built-in pilots are found through the services file
+        assertTrue(PilotRegistry.getNames().containsAll(List.of("AutoPilot", "MovePlanner", "LookAheadPilot", "AnytimePilot", "RolloutPilot")));
+        assertTrue(PilotRegistry.create("MovePlanner") instanceof MovePlanner);
+        assertNotSame(PilotRegistry.create(PilotRegistry.DEFAULT), PilotRegistry.create(PilotRegistry.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> PilotRegistry.create("noSuchPilot"));
+
+        //a pilot that takes longer than its budget is replaced by an AutoPilot
+        PilotRegistry.register("testSlow", () -> (board, piece, x, y) -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return TetrisModel.MoveType.DOWN;
+        });
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece stick = TetrisPiece.makeFastRotations(new TetrisPiece(TetrisPiece.STICK_STR));
+        board.placePiece(stick, 4, 20);
+        TetrisModel.MoveType quick = new AutoPilot().bestMove(board, stick, 4, 20);
+        BudgetedPilot slow = PilotRegistry.create("testSlow", 20_000_000L);
+        assertEquals(quick, slow.bestMove(board, stick, 4, 20));
+        assertEquals(quick, slow.bestMove(board, stick, 4, 20), "the pilot is still busy with the last move");
+        assertEquals(2, slow.getFallbacks());
+
+        BudgetedPilot fast = PilotRegistry.create(PilotRegistry.DEFAULT, 1_000_000_000L);
+        assertEquals(quick, fast.bestMove(board, stick, 4, 20));
+        assertEquals(0, fast.getFallbacks());
+
+        //a budget that is a share of the tick interval follows the speed of the game
+        fast.setTickInterval(100_000_000L);
+        assertEquals(1_000_000_000L, fast.getBudget(), "a fixed budget stays put");
+        fast.setTickFraction(0.5);
+        fast.setTickInterval(100_000_000L);
+        assertEquals(50_000_000L, fast.getBudget());
+    }
+
+    @Test
+    void testLookAheadPilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece flat = new TetrisPiece("0 0  1 0  2 0  3 0");
+        board.placePiece(flat, 0, 0); board.commit();
+        board.placePiece(flat, 4, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0"), 8, 0); board.commit();
+
+        TetrisPiece stick = TetrisPiece.makeFastRotations(new TetrisPiece(TetrisPiece.STICK_STR));
+        board.placePiece(stick, 4, 20);
+        String before = board.toString();
+        assertEquals(TetrisModel.MoveType.RIGHT, new LookAheadPilot(1, 2).bestMove(board, stick, 4, 20));
+        assertEquals(TetrisModel.MoveType.RIGHT, new LookAheadPilot(2, 2).bestMove(board, stick, 4, 20));
+        assertEquals(before, board.toString(), "the pilot should not change the board");
+
+        //pilots share their worker threads, so making one per game doesn't pile threads up
+        int threads = Thread.activeCount();
+        for (int i = 0; i < 20; i++) new LookAheadPilot(2, 3).bestMove(board, stick, 4, 20);
+        assertTrue(Thread.activeCount() - threads <= 3);
+    }
+
+    @Test
+    void testHeadlessGameIsReproducible() {
+        HeadlessRunner.GameResult first = HeadlessRunner.playGame(42, new AutoPilot(), 200);
+        HeadlessRunner.GameResult second = HeadlessRunner.playGame(42, new AutoPilot(), 200);
+        assertEquals(first.score, second.score);
+        assertEquals(first.pieces, second.pieces);
+        assertEquals(first.ticks, second.ticks);
+        assertEquals(first.lines, second.lines);
+        assertTrue(first.pieces <= 200);
+    }
+
+    @Test
+    void testWeightTunerResumes() throws IOException, InterruptedException {
+        Path checkpoint = Files.createTempFile("tetris", ".ckpt");
+        try {
+            Files.delete(checkpoint); //start from scratch
+            WeightTuner straight = new WeightTuner(6, 2, 2, 40, 2, 5, null);
+            for (int g = 0; g < 3; g++) straight.runGeneration();
+
+            //stop after two generations, then carry on from the checkpoint
+            WeightTuner first = new WeightTuner(6, 2, 2, 40, 2, 5, checkpoint);
+            first.runGeneration();
+            first.runGeneration();
+            WeightTuner resumed = new WeightTuner(6, 2, 2, 40, 2, 5, checkpoint);
+            assertEquals(2, resumed.getGeneration());
+            assertArrayEquals(first.getBest().getWeights(), resumed.getBest().getWeights());
+            resumed.runGeneration();
+
+            assertArrayEquals(straight.getMean(), resumed.getMean());
+            assertArrayEquals(straight.getBest().getWeights(), resumed.getBest().getWeights());
+            assertThrows(IOException.class, () -> new WeightTuner(6, 2, 2, 40, 2, 6, checkpoint));
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    @Test
+    void testPieceSources() {
+        //every bag holds each piece exactly once
+        BagPieceSource bag = new BagPieceSource(7, 7);
+        for (int b = 0; b < 3; b++) {
+            boolean[] seen = new boolean[7];
+            for (int i = 0; i < 7; i++) {
+                int id = bag.nextPieceId();
+                assertFalse(seen[id], "piece dealt twice from one bag");
+                seen[id] = true;
+            }
+        }
+
+        //the same seed gives the same sequence, in bulk or one at a time
+        int[] bulk = new int[50];
+        new UniformPieceSource(11, 7).fill(bulk);
+        UniformPieceSource single = new UniformPieceSource(11, 7);
+        SequencePieceSource replay = new UniformPieceSource(11, 7).prefetch(50);
+        for (int i = 0; i < bulk.length; i++) {
+            assertEquals(bulk[i], single.nextPieceId());
+            assertEquals(bulk[i], replay.nextPieceId());
+        }
+        assertEquals(bulk[0], replay.nextPieceId(), "a sequence starts over when it runs out");
+    }
+
+    @Test
+    void testSaveFileRoundTrip() throws IOException {
+        TetrisModel model = new TetrisModel();
+        model.setAutoPilotMode();
+        model.startGame(new BagPieceSource(5, 7));
+        for (int i = 0; i < 300; i++) model.modelTick(TetrisModel.MoveType.DOWN);
+
+        ByteBuffer saved = SaveFile.encode(model);
+        assertTrue(saved.remaining() < 100, "a save should only take a few dozen bytes");
+        TetrisModel loaded = SaveFile.decode(saved.duplicate());
+        assertEquals(model.getBoard().toString(), loaded.getBoard().toString());
+        assertEquals(model.getScore(), loaded.getScore());
+        assertEquals(model.getCount(), loaded.getCount());
+
+        //both games carry on with the same pieces
+        for (int i = 0; i < 300; i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            loaded.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertEquals(model.getBoard().toString(), loaded.getBoard().toString());
+
+        //a huge count of pieces drawn is refused, even with a good checksum, rather than replayed
+        ByteBuffer huge = SaveFile.encode(model);
+        huge.putLong(34, Long.MAX_VALUE);
+        CRC32 crc = new CRC32();
+        crc.update(huge.array(), 0, huge.limit() - 4);
+        huge.putInt(huge.limit() - 4, (int) crc.getValue());
+        assertThrows(IOException.class, () -> SaveFile.decode(huge));
+
+        saved.put(30, (byte) (saved.get(30) ^ 1));
+        assertThrows(IOException.class, () -> SaveFile.decode(saved));
+
+        //a finished game's last piece has landed, so it is saved as part of the grid, not as falling
+        TetrisModel finished = new TetrisModel();
+        finished.startGame(new BagPieceSource(5, 7));
+        while (finished.isGameOn()) finished.modelTick(TetrisModel.MoveType.DOWN);
+        TetrisModel reloaded = SaveFile.decode(SaveFile.encode(finished));
+        assertFalse(reloaded.isGameOn());
+        assertEquals(finished.getScore(), reloaded.getScore());
+        TetrisBoard board = new TetrisBoard(reloaded.getBoard());
+        board.undo(); //nothing to take off
+        assertEquals(finished.getBoard().toString(), board.toString());
+    }
+
+    @Test
+    void testReplay() throws IOException {
+        Path log = Files.createTempFile("tetris", ReplayRecorder.EXTENSION);
+        try {
+            TetrisModel model = new TetrisModel();
+            model.setAutoPilotMode();
+            String[] boards = new String[2];
+            int[] scores = new int[2];
+            try (ReplayRecorder recorder = new ReplayRecorder(log, TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE)) {
+                model.setRecorder(recorder);
+                for (int game = 0; game < 2; game++) {
+                    model.getBoard().newGame();
+                    model.startGame(new UniformPieceSource(game, 7));
+                    for (int i = 0; i < 400; i++) model.modelTick(TetrisModel.MoveType.DOWN);
+                    boards[game] = model.getBoard().toString();
+                    scores[game] = model.getScore();
+                }
+            }
+
+            ReplayPlayer player = new ReplayPlayer(log);
+            assertEquals(2, player.getGames());
+            for (int game = 0; game < 2; game++) {
+                TetrisModel replayed = player.replay(game);
+                assertEquals(boards[game], replayed.getBoard().toString());
+                assertEquals(scores[game], replayed.getScore());
+            }
+        } finally {
+            Files.delete(log);
+        }
+    }
+
+    @Test
+    void testSnapshots() {
+        TetrisModel model = new TetrisModel();
+        model.setAutoPilotMode();
+        assertFalse(model.getSnapshot().isGameOn());
+        model.startGame(new UniformPieceSource(3, 7));
+        for (int i = 0; i < 200; i++) model.modelTick(TetrisModel.MoveType.DOWN);
+
+        TetrisSnapshot snapshot = model.getSnapshot();
+        TetrisBoard board = model.getBoard();
+        for (int y = 0; y < board.getHeight(); y++) {
+            assertEquals(board.getRowMask(y), snapshot.getRowMask(y));
+        }
+        assertEquals(model.getScore(), snapshot.getScore());
+        assertEquals(model.getCount(), snapshot.getCount());
+
+        //a snapshot does not change as the game goes on
+        long[] rows = new long[board.getHeight()];
+        for (int y = 0; y < rows.length; y++) rows[y] = snapshot.getRowMask(y);
+        for (int i = 0; i < 200; i++) model.modelTick(TetrisModel.MoveType.DOWN);
+        assertNotSame(snapshot, model.getSnapshot());
+        for (int y = 0; y < rows.length; y++) assertEquals(rows[y], snapshot.getRowMask(y));
+    }
+
+    @Test
+    void testPieceTable() {
+        PieceTable table = TetrisPiece.getPieceTable();
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        assertEquals(pieces.length, table.getPieceCount());
+        assertEquals(19, table.getRotationTotal()); //2 + 4 + 4 + 2 + 2 + 1 + 4
+        for (int id = 0; id < pieces.length; id++) {
+            TetrisPiece piece = pieces[id];
+            for (int r = 0; r < table.getRotationCount(id); r++) {
+                assertSame(piece, table.getPiece(table.index(id, r)));
+                piece = piece.fastRotation();
+            }
+            assertSame(pieces[id], piece);
+        }
+
+        //row masks and column tops of the L
+        TetrisPiece l = new TetrisPiece(TetrisPiece.L1_STR);
+        assertArrayEquals(new long[]{0b11, 0b01, 0b01}, l.getRowMasks());
+        assertArrayEquals(new int[]{2, 0}, l.getColumnTops());
+    }
+
+    @Test
+    void testPieceRegistry() throws InterruptedException {
+        //every thread sees the same pieces, built once
+        TetrisPiece[][] seen = new TetrisPiece[4][];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> seen[index] = TetrisPiece.getPieces());
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (TetrisPiece[] pieces : seen) assertSame(TetrisPiece.getPieces(), pieces);
+        assertSame(PieceRegistry.standard(), PieceRegistry.get(PieceRegistry.STANDARD));
+        assertEquals(new TetrisPiece(TetrisPiece.SQUARE_STR), PieceRegistry.standard().getPiece(5));
+
+        //a custom set: the F and X pentominoes
+        PieceRegistry pentominoes = PieceRegistry.register("testPentominoes", "1 0  1 1  1 2  0 1  2 2", "1 0  0 1  1 1  2 1  1 2");
+        assertSame(pentominoes, PieceRegistry.get("testPentominoes"));
+        assertEquals(4, pentominoes.getTable().getRotationCount(0));
+        assertEquals(1, pentominoes.getTable().getRotationCount(1));
+        assertThrows(IllegalArgumentException.class, () -> PieceRegistry.register("testPentominoes", "0 0"));
+        assertThrows(IllegalArgumentException.class, () -> PieceRegistry.register("testBad", "1 1  1 2"));
+
+        TetrisModel model = new TetrisModel(pentominoes);
+        model.setAutoPilotMode();
+        model.startGame(new UniformPieceSource(1, pentominoes.size()));
+        for (int i = 0; i < 500 && model.isGameOn(); i++) model.modelTick(TetrisModel.MoveType.DOWN);
+        assertTrue(model.getCount() > 5);
+        assertThrows(IllegalArgumentException.class, () -> SaveFile.encode(model));
+    }
+
+    @Test
+    void testBoardHash() {
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+        TetrisBoard a = new TetrisBoard(4, 10), b = new TetrisBoard(4, 10);
+        assertEquals(0, a.getHash());
+
+        //the same blocks placed in a different order hash the same
+        a.placePiece(square, 0, 0); a.commit(); a.placePiece(stick, 3, 0); a.commit();
+        b.placePiece(stick, 3, 0); b.commit(); b.placePiece(square, 0, 0); b.commit();
+        assertEquals(a.getHash(), b.getHash());
+        long before = a.getHash();
+        a.placePiece(square, 0, 2);
+        assertNotEquals(before, a.getHash());
+        a.undo();
+        assertEquals(before, a.getHash());
+
+        //clearing rows hashes the same as building what is left directly
+        a.placePiece(stick, 2, 0); a.commit();
+        assertEquals(2, a.clearRows());
+        TetrisBoard c = new TetrisBoard(4, 10);
+        c.placePiece(new TetrisPiece("0 0  0 1"), 2, 0); c.commit();
+        c.placePiece(new TetrisPiece("0 0  0 1"), 3, 0); c.commit();
+        assertEquals(c.getHash(), a.getHash());
+        assertEquals(a.getHash(), new TetrisBoard(a).getHash());
+        a.newGame();
+        assertEquals(0, a.getHash());
+    }
+
+    @Test
+    void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(8);
+        assertEquals(8, table.capacity());
+        assertTrue(Double.isNaN(table.get(1)));
+        table.put(1, 1.5);
+        assertEquals(1.5, table.get(1));
+        assertEquals(1, table.getHits());
+        assertEquals(1, table.getMisses());
+
+        //fill one set; the entry that was looked up survives eviction
+        long sets = table.capacity() / TranspositionTable.WAYS;
+        for (long k = 2; k <= TranspositionTable.WAYS + 1; k++) table.put(1 + (k - 1) * sets, k);
+        assertEquals(1, table.getEvictions());
+        assertEquals(1.5, table.get(1));
+        assertEquals(2.0 / 3, table.hitRate());
+    }
 }
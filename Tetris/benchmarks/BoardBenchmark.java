@@ -0,0 +1,109 @@
+package benchmarks;
+
+import model.TetrisBoard;
+import model.TetrisPiece;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the TetrisBoard operations the model and the pilots run in their inner loops,
+ * over a range of board sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"10", "20", "64"})
+    public int width;
+
+    @Param({"24", "48"})
+    public int height;
+
+    private TetrisBoard board;
+    private TetrisPiece[] pieces;
+    private TetrisPiece flat; //lying stick, used to fill rows
+    private int[] heights;
+    private int x; //drop column for placement benchmarks
+
+    @Setup
+    public void setUp() {
+        board = new TetrisBoard(width, height);
+        board.newGame();
+        pieces = TetrisPiece.getPieces();
+        flat = pieces[0].fastRotation();
+        heights = new int[width];
+
+        //rough up the bottom third of the board, leaving one hole per row so nothing clears
+        Random random = new Random(42);
+        for (int y = 0; y < height / 3; y++) {
+            int gap = random.nextInt(width);
+            for (int col = 0; col < width; col++) {
+                if (col != gap && random.nextInt(4) != 0) {
+                    board.placePiece(new TetrisPiece("0 0"), col, y);
+                    board.commit();
+                }
+            }
+        }
+        x = width / 2 - 1;
+    }
+
+    @Benchmark
+    public int placeAndUndo() {
+        TetrisPiece piece = pieces[1];
+        int result = board.placePiece(piece, x, board.placementHeight(piece, x));
+        board.undo();
+        return result;
+    }
+
+    @Benchmark
+    public int placeAndClearRows() {
+        //fill the first empty rows with lying sticks, clear them, then roll everything back
+        board.pushCheckpoint();
+        int y = board.getMaxHeight();
+        for (int col = 0; col + 4 <= width; col += 4) {
+            board.placePiece(flat, col, y);
+            board.commit();
+        }
+        for (int col = width - width % 4; col < width; col++) {
+            board.placePiece(pieces[0], col, y);
+            board.commit();
+        }
+        int cleared = board.clearRows();
+        board.popCheckpoint();
+        return cleared;
+    }
+
+    @Benchmark
+    public void placementHeight(Blackhole bh) {
+        for (TetrisPiece piece : pieces) {
+            for (int col = 0; col + piece.getWidth() <= width; col++) {
+                bh.consume(board.placementHeight(piece, col));
+            }
+        }
+    }
+
+    @Benchmark
+    public void placementHeights(Blackhole bh) {
+        for (TetrisPiece piece : pieces) {
+            bh.consume(board.placementHeights(piece, heights));
+        }
+    }
+
+    @Benchmark
+    public int checkpointRoundTrip() {
+        board.pushCheckpoint();
+        TetrisPiece piece = pieces[2];
+        int result = board.placePiece(piece, x, board.placementHeight(piece, x));
+        board.clearRows();
+        board.popCheckpoint();
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import model.AutoPilot;
+import model.TetrisBoard;
+import model.TetrisModel;
+import model.TetrisPiece;
+import model.UniformPieceSource;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a model tick with the autopilot playing, and the autopilot's decision on its own
+ * over a range of board sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    /**
+     * An autopilot game that is restarted whenever it ends.
+     */
+    @State(Scope.Thread)
+    public static class Game {
+        TetrisModel model;
+        long seed;
+
+        @Setup
+        public void setUp() {
+            model = new TetrisModel();
+            model.setAutoPilotMode();
+            restart();
+        }
+
+        void restart() {
+            model.getBoard().newGame();
+            model.startGame(new UniformPieceSource(seed++, TetrisPiece.getPieces().length));
+        }
+    }
+
+    /**
+     * A half-filled board with a piece falling in the middle, as the pilot sees it.
+     */
+    @State(Scope.Thread)
+    public static class Decision {
+        @Param({"10", "20", "64"})
+        public int width;
+
+        @Param({"24", "48"})
+        public int height;
+
+        TetrisBoard board;
+        TetrisPiece piece;
+        int x, y;
+        AutoPilot pilot;
+
+        @Setup
+        public void setUp() {
+            board = new TetrisBoard(width, height);
+            board.newGame();
+            Random random = new Random(42);
+            for (int row = 0; row < height / 3; row++) {
+                int gap = random.nextInt(width);
+                for (int col = 0; col < width; col++) {
+                    if (col != gap && random.nextInt(4) != 0) {
+                        board.placePiece(new TetrisPiece("0 0"), col, row);
+                        board.commit();
+                    }
+                }
+            }
+            piece = TetrisPiece.getPieces()[2];
+            x = (width - piece.getWidth()) / 2;
+            y = height - piece.getHeight();
+            board.placePiece(piece, x, y); //falling, not committed
+            pilot = new AutoPilot();
+        }
+    }
+
+    @Benchmark
+    public int modelTick(Game game) {
+        if (!game.model.isGameOn()) game.restart();
+        game.model.modelTick(TetrisModel.MoveType.DOWN);
+        return game.model.getScore();
+    }
+
+    @Benchmark
+    public TetrisModel.MoveType bestMove(Decision decision) {
+        return decision.pilot.bestMove(decision.board, decision.piece, decision.x, decision.y);
+    }
+}
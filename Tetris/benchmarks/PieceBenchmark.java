@@ -0,0 +1,41 @@
+package benchmarks;
+
+import model.TetrisPiece;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building pieces and their rotation rings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+
+    @Param({"0", "1", "5"}) //stick, L1 and square
+    public int pieceIndex;
+
+    private String points;
+
+    @Setup
+    public void setUp() {
+        points = new String[]{
+                TetrisPiece.STICK_STR, TetrisPiece.L1_STR, TetrisPiece.L2_STR, TetrisPiece.S1_STR,
+                TetrisPiece.S2_STR, TetrisPiece.SQUARE_STR, TetrisPiece.PYRAMID_STR}[pieceIndex];
+    }
+
+    @Benchmark
+    public TetrisPiece[] getPieces() {
+        return TetrisPiece.getPieces();
+    }
+
+    @Benchmark
+    public TetrisPiece makeFastRotations() {
+        return TetrisPiece.makeFastRotations(new TetrisPiece(points));
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import model.TetrisBoard;
+import model.TetrisPiece;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the boxing placementHeight that TetrisBoard used to have against the primitive
+ * version and the batched placementHeights, over every rotation and x of every piece.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementHeightBenchmark {
+
+    private TetrisBoard board;
+    private TetrisPiece[] rotations;
+    private int[] heights;
+
+    @Setup
+    public void setUp() {
+        board = new TetrisBoard(10, 24);
+        board.newGame();
+        List<TetrisPiece> all = new ArrayList<>();
+        for (TetrisPiece root : TetrisPiece.getPieces()) {
+            TetrisPiece piece = root;
+            do {
+                all.add(piece);
+                piece = piece.fastRotation();
+            } while (piece != root);
+        }
+        rotations = all.toArray(new TetrisPiece[0]);
+        heights = new int[board.getWidth()];
+
+        //drop a few pieces so the columns are uneven
+        Random random = new Random(42);
+        for (int i = 0; i < 12; i++) {
+            TetrisPiece piece = rotations[random.nextInt(rotations.length)];
+            int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+            board.placePiece(piece, x, board.placementHeight(piece, x));
+            board.clearRows();
+            board.commit();
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        for (TetrisPiece piece : rotations) {
+            for (int x = 0; x + piece.getWidth() <= board.getWidth(); x++) {
+                bh.consume(legacyPlacementHeight(board, piece, x));
+            }
+        }
+    }
+
+    @Benchmark
+    public void primitive(Blackhole bh) {
+        for (TetrisPiece piece : rotations) {
+            for (int x = 0; x + piece.getWidth() <= board.getWidth(); x++) {
+                bh.consume(board.placementHeight(piece, x));
+            }
+        }
+    }
+
+    @Benchmark
+    public void batched(Blackhole bh) {
+        for (TetrisPiece piece : rotations) {
+            int positions = board.placementHeights(piece, heights);
+            for (int x = 0; x < positions; x++) {
+                bh.consume(heights[x]);
+            }
+        }
+    }
+
+    /**
+     * The placementHeight implementation TetrisBoard shipped with, kept here as the baseline.
+     */
+    static int legacyPlacementHeight(TetrisBoard board, TetrisPiece piece, int x) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int i = 0; i < piece.getLowestYVals().length; i++) {
+            int y1 = piece.getLowestYVals()[i], y2 = board.getColumnHeight(x + i);
+            result.add(y2 + (piece.getHeight() - y1));
+        }
+        return Collections.max(result) - piece.getHeight();
+    }
+}
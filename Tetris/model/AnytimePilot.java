@@ -0,0 +1,194 @@
+package model;
+
+import java.io.Serializable;
+
+/** Represents an anytime pilot for Tetris.
+ * The pilot searches like LookAheadPilot, but by iterative deepening against the clock: it picks the
+ * best placement looking at the current piece alone, then again averaging over the next piece, and so on,
+ * until the deadline for the move passes. The deadline is a fraction of the time between ticks, so the
+ * pilot thinks less when the game is sped up. A search cut off by the deadline is thrown away, and the
+ * deepest finished one gives the move; the first depth is always finished, so there is always a move.
+ *
+ * While the same piece is falling on the same board, each tick carries on deepening from where the last
+ * one stopped, and the positions it scored stay in a transposition table, so a depth cut off on one tick
+ * goes faster when it is tried again on the next. The time each move took is recorded.
+ */
+public class AnytimePilot implements TetrisPilot, Serializable {
+
+    public static final long DEFAULT_TICK_NANOS = 250_000_000L; //tick interval assumed until one is set
+    public static final double DEFAULT_TICK_FRACTION = 0.15;
+    public static final long DEFAULT_MAX_NANOS = 40_000_000L;
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    private final double tickFraction; //share of the tick interval each move may take
+    private final long maxNanos; //most time a move may take, however long the ticks are
+    private final int maxDepth; //pieces searched at most, counting the current one
+    private final AutoPilot evaluator;
+    private volatile long tickNanos = DEFAULT_TICK_NANOS;
+
+    //search state, rebuilt after deserialization
+    private transient TetrisBoard root; //the board without the falling piece
+    private transient Expectimax search; //keeps its transposition table from move to move
+
+    //what has been worked out for the falling piece
+    private transient TetrisPiece[] ring; //its rotations, starting from the one it was in when its search started
+    private transient long rootHash; //hash of the board it is falling onto
+    private transient int completedDepth;
+    private transient TetrisPiece target; //best placement found by the deepest finished search
+    private transient int targetX;
+
+    //latency of the moves decided so far
+    private transient volatile long decisions, totalNanos, maxLatencyNanos, lastLatencyNanos;
+
+    /**
+     * Constructor for a pilot with the default time limits, depth and weights
+     */
+    public AnytimePilot() {
+        this(DEFAULT_TICK_FRACTION, DEFAULT_MAX_NANOS, DEFAULT_MAX_DEPTH, new AutoPilot());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tickFraction share of the tick interval each move may take, e.g. 0.15
+     * @param maxNanos most time a move may take in nanoseconds, however long the ticks are
+     * @param maxDepth pieces to search at most, counting the current one
+     * @param evaluator pilot whose evaluateBoard scores the boards the search reaches
+     */
+    public AnytimePilot(double tickFraction, long maxNanos, int maxDepth, AutoPilot evaluator) {
+        if (tickFraction <= 0 || maxNanos <= 0) throw new IllegalArgumentException("Time limits must be positive");
+        if (maxDepth < 1) throw new IllegalArgumentException("Search depth must be at least 1: " + maxDepth);
+        this.tickFraction = tickFraction;
+        this.maxNanos = maxNanos;
+        this.maxDepth = maxDepth;
+        this.evaluator = evaluator;
+    }
+
+    @Override
+    public void setTickInterval(long nanos) {
+        tickNanos = nanos > 0 ? nanos : DEFAULT_TICK_NANOS;
+    }
+
+    /**
+     * Getter for the time each move may take now, in nanoseconds
+     */
+    public long getBudget() {
+        return Math.min((long) (tickFraction * tickNanos), maxNanos);
+    }
+
+    /**
+     * Getter for the depth of the deepest search finished for the falling piece
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Getter for the number of moves decided so far
+     */
+    public long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Getter for the time the last move took, in nanoseconds
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Getter for the longest time a move took, in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * Getter for the mean time a move took, in nanoseconds
+     *
+     * @return the mean, or 0 before the first move
+     */
+    public double getMeanLatencyNanos() {
+        long count = decisions;
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Given a piece and a board, search as deep as the time for this move allows
+     * and return the next move towards the best placement found. The board passed in is not changed.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param currentY  Where the current piece is currently located (Y position)
+     * @return The best move (Rotate, Left, Right or Drop)
+     */
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        if (piece == null) return TetrisModel.MoveType.DOWN;
+        long start = System.nanoTime();
+        if (root == null || root.getWidth() != board.getWidth() || root.getHeight() != board.getHeight()) {
+            root = new TetrisBoard(board.getWidth(), board.getHeight(), maxDepth);
+            search = new Expectimax(TetrisPiece.getPieceTable().rotationsById(), evaluator, new TranspositionTable(LookAheadPilot.DEFAULT_CACHE_SIZE));
+            ring = null;
+        }
+        root.copyFrom(board);
+        root.undo(); //take the falling piece off
+
+        if (ring == null || root.getHash() != rootHash || !TetrisPiece.inRing(ring, piece)) { //a new piece, start over
+            ring = TetrisPiece.ringOf(piece);
+            rootHash = root.getHash();
+            completedDepth = 0;
+            target = null;
+        }
+
+        //the first depth costs no more than an AutoPilot move and never looks at the clock,
+        //so it always runs to the end and there is a target to step towards
+        long deadline = start + getBudget();
+        while (completedDepth < maxDepth && (completedDepth == 0 || System.nanoTime() - deadline < 0)) {
+            search.setDeadline(deadline);
+            if (!searchRoot(completedDepth + 1)) break;
+            completedDepth++;
+        }
+
+        long latency = System.nanoTime() - start;
+        lastLatencyNanos = latency;
+        totalNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        decisions++;
+        return AutoPilot.stepTowards(piece, currentX, target, targetX);
+    }
+
+    /**
+     * Search every placement of the falling piece to the given depth, and keep the best as the target.
+     *
+     * @return false if the deadline passed first, leaving the target as it was
+     */
+    private boolean searchRoot(int depth) {
+        TetrisPiece best = null;
+        int bestX = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (TetrisPiece rotation : ring) {
+            for (int x = 0; x + rotation.getWidth() <= root.getWidth(); x++) {
+                int y = root.placementHeight(rotation, x);
+                if (y + rotation.getHeight() > root.getHeight()) continue;
+                root.pushCheckpoint();
+                double score = Double.POSITIVE_INFINITY;
+                if (root.placePiece(rotation, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+                    score = search.expectedScore(root, depth - 1, root.clearRows());
+                }
+                root.popCheckpoint();
+                if (search.isAborted()) return false;
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = rotation;
+                    bestX = x;
+                }
+            }
+        }
+        target = best;
+        targetX = bestX;
+        return true;
+    }
+}
@@ -7,25 +7,149 @@ import java.io.Serializable;
  */
 public class AutoPilot implements TetrisPilot, Serializable {
 
+    //indices into the weight vector
+    public static final int AGGREGATE_HEIGHT = 0;
+    public static final int HOLES = 1;
+    public static final int BUMPINESS = 2;
+    public static final int ROWS_CLEARED = 3;
+    //optional weights, used only when a full vector of WEIGHT_COUNT weights is given
+    public static final int ROW_TRANSITIONS = 4;
+    public static final int COLUMN_TRANSITIONS = 5;
+    public static final int WELLS = 6;
+    public static final int ROWS_WITH_HOLES = 7;
+    public static final int WEIGHT_COUNT = 8;
+
+    //default weights: a positive weight penalizes a feature, a negative one rewards it
+    public static final double[] DEFAULT_WEIGHTS = {0.510066, 0.35663, 0.184483, -0.760666};
+
+    //feature storage for evaluateBoard; one pilot can be scoring boards on several search threads
+    private static final ThreadLocal<int[]> FEATURES = ThreadLocal.withInitial(() -> new int[BoardFeatures.COUNT]);
+
+    //penalty for a placement that leaves blocks in the buffer zone, which ends the game
+    private static final double GAME_OVER = 1e9;
+
+    private final double[] weights;
+
+    //scratch storage for the search, rebuilt after deserialization
+    private transient TetrisBoard scratch;
+    private transient int[] heights;
+
+    /**
+     * Constructor for an autopilot using the default weights
+     */
+    public AutoPilot() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Constructor for an autopilot using the given feature weights
+     *
+     * @param weights one weight per feature, indexed by AGGREGATE_HEIGHT, HOLES, BUMPINESS and ROWS_CLEARED,
+     *                optionally followed by ROW_TRANSITIONS, COLUMN_TRANSITIONS, WELLS and ROWS_WITH_HOLES
+     */
+    public AutoPilot(double[] weights) {
+        if (weights.length != DEFAULT_WEIGHTS.length && weights.length != WEIGHT_COUNT) {
+            throw new IllegalArgumentException("Expected " + DEFAULT_WEIGHTS.length + " or " + WEIGHT_COUNT
+                    + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Getter for the feature weights
+     *
+     * @return a copy of the weights used by evaluateBoard
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
     /**
      * Given a piece and a board, return a move object that represents
      * the best move for that piece. Note that if the move returned is
      * invalid or impossible, it won't be played!
      *
+     * Every rotation of the piece is dropped at every x, the resulting boards are scored
+     * with evaluateBoard, and the move returned is the next step (rotate, then shift, then drop)
+     * towards the best of those placements. The falling piece is taken off a scratch copy of the board,
+     * so the board passed in is not changed.
+     *
      * @param board    The current board configuration
      * @param piece    The current piece
      * @param currentX  Where the current piece is currently located (X position)
      * @param currentY  Where the current piece is currently located (Y position)
-     * @return The best move (Rotate, Left, or Right), based on an assessment of "good" moves
+     * @return The best move (Rotate, Left, Right or Drop), based on an assessment of "good" moves
      */
     @Override
     public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        if (piece == null) return TetrisModel.MoveType.DOWN;
+
+        if (scratch == null || scratch.getWidth() != board.getWidth() || scratch.getHeight() != board.getHeight()) {
+            scratch = new TetrisBoard(board.getWidth(), board.getHeight(), 1);
+            heights = new int[board.getWidth()];
+        }
+        scratch.copyFrom(board);
+        scratch.undo(); //take the falling piece off
 
-        //The current strategy is to pick a random move from among the options: Left, Right, and Rotate
-        //Why not try to improve on this!
-        int index = (int) Math.round(Math.random()*(TetrisModel.MoveType.values().length - 3));
-        return TetrisModel.MoveType.values()[index];
+        //try every rotation at every x; ties go to the first placement found, which keeps
+        //the target stable from one tick to the next as the piece rotates towards it
+        TetrisPiece bestPiece = null;
+        int bestX = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        TetrisPiece rotation = piece;
+        do {
+            int positions = scratch.placementHeights(rotation, heights);
+            for (int x = 0; x < positions; x++) {
+                double score = scorePlacement(scratch, rotation, x, heights[x]);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestPiece = rotation;
+                    bestX = x;
+                }
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != null && rotation != piece);
+
+        return stepTowards(piece, currentX, bestPiece, bestX);
+    }
 
+    /**
+     * Returns the next move that takes a falling piece towards a target placement:
+     * rotate until the rotation matches, then shift until x matches, then drop.
+     *
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param target   The rotation of the piece to place, or null if nothing fits
+     * @param targetX  Where the target rotation should be dropped (X position)
+     * @return the next move towards the target
+     */
+    static TetrisModel.MoveType stepTowards(TetrisPiece piece, int currentX, TetrisPiece target, int targetX) {
+        if (target == null) return TetrisModel.MoveType.DROP; //nothing fits, just let it fall
+        if (target != piece) return TetrisModel.MoveType.ROTATE;
+        if (currentX < targetX) return TetrisModel.MoveType.RIGHT;
+        if (currentX > targetX) return TetrisModel.MoveType.LEFT;
+        return TetrisModel.MoveType.DROP;
+    }
+
+    /**
+     * Place a piece on the board, clear rows, score the result and put the board back.
+     *
+     * @param board board to place on; left as it was found
+     * @param piece piece to place
+     * @param x placement position, x
+     * @param y placement position, y
+     * @return the score of the resulting board, or infinity if the piece does not fit
+     */
+    private double scorePlacement(TetrisBoard board, TetrisPiece piece, int x, int y) {
+        if (y + piece.getHeight() > board.getHeight()) return Double.POSITIVE_INFINITY;
+        board.pushCheckpoint();
+        double score = Double.POSITIVE_INFINITY;
+        if (board.placePiece(piece, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+            int cleared = board.clearRows();
+            score = evaluateBoard(board, cleared);
+        }
+        board.popCheckpoint();
+        return score;
     }
 
     /**
@@ -34,21 +158,40 @@ public class AutoPilot implements TetrisPilot, Serializable {
      * use this function to facilitate a "look ahead" at the tetris.boards you
      * can realize from your current position. If a move drives
      * you in the direction of a "good" board, maybe that's the right one to choose!
-     * What are some metrics you might use to evaluate "goodness"?  Well,
-     * you might count the number of "holes" buried beneath lines on the board.
-     * A lot of holes indicates a pretty bad board.
      *
-     * Note that if you alter the state of the board as you are assessing them, you
-     * can always use your "undo" function to reset the board.  Note also that any implementation
-     * will get you full marks for the exercise, so don't stress about it too much!!  Have fun
-     * with it, if the task appeals :).
+     * The board is scored on the weighted sum of its aggregate column height, its holes
+     * (empty blocks with a filled block somewhere above them) and its bumpiness (the sum of
+     * height differences between neighbouring columns). Pilots built with WEIGHT_COUNT weights
+     * also score row and column transitions, wells and rows with holes; see BoardFeatures.
      *
      * @param board  The current board configuration
      * @return  A number that evaluates the board.
      */
     public double evaluateBoard(TetrisBoard board) {
-        throw new UnsupportedOperationException(); //replace this!
+        return evaluateBoard(board, 0);
     }
 
+    /**
+     * Scores a board the way evaluateBoard does, rewarding the rows that were cleared to reach it.
+     *
+     * @param board  The board configuration after a placement
+     * @param rowsCleared number of rows the placement cleared
+     * @return  A number that evaluates the board; bigger is worse.
+     */
+    public double evaluateBoard(TetrisBoard board, int rowsCleared) {
+        int[] features = board.getFeatures(FEATURES.get());
+        double score = weights[AGGREGATE_HEIGHT] * features[BoardFeatures.AGGREGATE_HEIGHT]
+                + weights[HOLES] * features[BoardFeatures.HOLES]
+                + weights[BUMPINESS] * features[BoardFeatures.BUMPINESS]
+                + weights[ROWS_CLEARED] * rowsCleared;
+        if (weights.length == WEIGHT_COUNT) {
+            score += weights[ROW_TRANSITIONS] * features[BoardFeatures.ROW_TRANSITIONS]
+                    + weights[COLUMN_TRANSITIONS] * features[BoardFeatures.COLUMN_TRANSITIONS]
+                    + weights[WELLS] * features[BoardFeatures.WELLS]
+                    + weights[ROWS_WITH_HOLES] * features[BoardFeatures.ROWS_WITH_HOLES];
+        }
+        if (features[BoardFeatures.MAX_HEIGHT] > board.getHeight() - TetrisModel.BUFFERZONE) score += GAME_OVER;
+        return score;
+    }
 
 }
@@ -0,0 +1,66 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * A piece source using the "7-bag" randomizer: every piece is put in a bag, the bag is shuffled,
+ * and its pieces are played in order before a new bag is filled. Every piece appears exactly
+ * once in each run of pieceCount pieces, so droughts and floods of one piece cannot happen.
+ */
+public class BagPieceSource implements PieceSource {
+
+    private final long seed; //seed the generator started from
+    private final Random random; //shuffles each bag
+    private final int[] bag; //current bag, in play order
+    private int next; //position of the next piece in the bag
+    private long drawn; //pieces drawn so far
+
+    /**
+     * Constructor
+     *
+     * @param seed seed for the random generator
+     * @param pieceCount number of different pieces, i.e. the size of a bag
+     */
+    public BagPieceSource(long seed, int pieceCount) {
+        if (pieceCount < 1) throw new IllegalArgumentException("Need at least one piece: " + pieceCount);
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.bag = new int[pieceCount];
+        this.next = pieceCount; //empty, the first call fills it
+    }
+
+    @Override
+    public int nextPieceId() {
+        if (next == bag.length) refill();
+        drawn++;
+        return bag[next++];
+    }
+
+    /**
+     * Put every piece back in the bag and shuffle it (Fisher-Yates)
+     */
+    private void refill() {
+        for (int i = 0; i < bag.length; i++) bag[i] = i;
+        for (int i = bag.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = bag[i];
+            bag[i] = bag[j];
+            bag[j] = tmp;
+        }
+        next = 0;
+    }
+
+    /**
+     * Getter for the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Getter for the number of pieces drawn so far
+     */
+    public long getDrawn() {
+        return drawn;
+    }
+}
@@ -0,0 +1,33 @@
+package model;
+
+/**
+ * Indices of the features TetrisBoard.getFeatures() fills in, for evaluators that score a board
+ * by a weighted sum of them. An array of COUNT ints holds one of each.
+ *
+ * Every feature is measured on the grid as it is, so clear rows before measuring a placement.
+ */
+public final class BoardFeatures {
+
+    //sum of the column heights
+    public static final int AGGREGATE_HEIGHT = 0;
+    //height of the tallest column
+    public static final int MAX_HEIGHT = 1;
+    //sum of the height differences between neighbouring columns
+    public static final int BUMPINESS = 2;
+    //empty blocks with a filled block somewhere above them
+    public static final int HOLES = 3;
+    //rows holding at least one hole
+    public static final int ROWS_WITH_HOLES = 4;
+    //filled/empty changes along each row up to the tallest column; the walls count as filled
+    public static final int ROW_TRANSITIONS = 5;
+    //filled/empty changes up each column; the floor counts as filled
+    public static final int COLUMN_TRANSITIONS = 6;
+    //cumulative well depths: a well is a run of empty blocks open to the top with both neighbours filled
+    //(or a wall), and one d blocks deep counts 1 + 2 + ... + d, as in Dellacherie's evaluation
+    public static final int WELLS = 7;
+
+    //number of features
+    public static final int COUNT = 8;
+
+    private BoardFeatures() {}
+}
@@ -0,0 +1,147 @@
+package model;
+
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Represents a pilot with a time budget for each move.
+ * The wrapped pilot decides on a thread of its own, working on a copy of the board. If it hasn't
+ * answered when the budget runs out, the move comes from a cheap fallback pilot instead, and the
+ * wrapped pilot's late answer is thrown away. Until it has finished, every move comes from the fallback.
+ * The budget is either fixed or a share of the tick interval, so it follows the speed of the game.
+ */
+public class BudgetedPilot implements TetrisPilot, Serializable {
+
+    private final TetrisPilot pilot; //the pilot being timed
+    private final TetrisPilot fallback; //moves when the pilot is too slow; should be fast
+    private volatile long budgetNanos; //time the pilot has for each move
+    private volatile double tickFraction; //share of the tick interval the budget is set to, 0 for a fixed budget
+
+    private transient ThreadPoolExecutor executor; //runs the pilot; its thread stops when the pilot is idle
+    private transient TetrisBoard copy; //board the pilot works on, so the model can move on without it
+    private transient Future<TetrisModel.MoveType> pending; //the pilot's last move, if it ran out of time
+    private transient volatile long moves, fallbacks;
+
+    /**
+     * Constructor
+     *
+     * @param pilot pilot to time
+     * @param fallback pilot to ask when the pilot runs out of time, e.g. an AutoPilot
+     * @param budgetNanos time the pilot has for each move, in nanoseconds
+     */
+    public BudgetedPilot(TetrisPilot pilot, TetrisPilot fallback, long budgetNanos) {
+        this.pilot = pilot;
+        this.fallback = fallback;
+        setBudget(budgetNanos);
+    }
+
+    /**
+     * Getter for the pilot being timed
+     */
+    public TetrisPilot getPilot() {
+        return pilot;
+    }
+
+    /**
+     * Set the time the pilot has for each move
+     *
+     * @param budgetNanos time in nanoseconds
+     */
+    public void setBudget(long budgetNanos) {
+        if (budgetNanos <= 0) throw new IllegalArgumentException("Budget must be positive: " + budgetNanos);
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Make the budget follow the tick interval: from now on each setTickInterval sets it
+     * to this share of the interval.
+     *
+     * @param tickFraction share of the tick interval each move may take, e.g. 0.5, or 0 to keep the budget fixed
+     */
+    public void setTickFraction(double tickFraction) {
+        if (tickFraction < 0) throw new IllegalArgumentException("Tick fraction cannot be negative: " + tickFraction);
+        this.tickFraction = tickFraction;
+    }
+
+    /**
+     * Getter for the time the pilot has for each move, in nanoseconds
+     */
+    public long getBudget() {
+        return budgetNanos;
+    }
+
+    /**
+     * Getter for the number of moves asked for so far
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    /**
+     * Getter for the number of moves the fallback pilot made, because the pilot was out of time or still busy
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public void setTickInterval(long nanos) {
+        double fraction = tickFraction;
+        if (fraction > 0 && nanos > 0) budgetNanos = Math.max(1, (long) (fraction * nanos));
+        pilot.setTickInterval(nanos);
+        fallback.setTickInterval(nanos);
+    }
+
+    /**
+     * Ask the pilot for a move, and the fallback pilot if the pilot runs out of time.
+     * The board passed in is not changed.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param currentY  Where the current piece is currently located (Y position)
+     * @return The pilot's move, or the fallback's
+     */
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        moves++;
+        if (pending != null && !pending.isDone()) return fallbackMove(board, piece, currentX, currentY);
+
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "Tetris pilot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        if (copy == null || copy.getWidth() != board.getWidth() || copy.getHeight() != board.getHeight()) {
+            copy = new TetrisBoard(board.getWidth(), board.getHeight(), 0);
+        }
+        copy.copyFrom(board);
+        TetrisBoard snapshot = copy;
+        pending = executor.submit(() -> pilot.bestMove(snapshot, piece, currentX, currentY));
+        try {
+            TetrisModel.MoveType move = pending.get(budgetNanos, TimeUnit.NANOSECONDS);
+            pending = null;
+            return move;
+        } catch (TimeoutException e) {
+            return fallbackMove(board, piece, currentX, currentY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); //let the caller see it
+            return fallbackMove(board, piece, currentX, currentY);
+        } catch (ExecutionException e) {
+            pending = null;
+            throw new RuntimeException("Pilot failed", e.getCause());
+        }
+    }
+
+    private TetrisModel.MoveType fallbackMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        fallbacks++;
+        return fallback.bestMove(board, piece, currentX, currentY);
+    }
+}
@@ -0,0 +1,118 @@
+package model;
+
+/**
+ * The expectimax search LookAheadPilot and AnytimePilot score placements with. A board is scored
+ * by the best placement of each piece that could come next, averaged over those pieces, down to
+ * a given depth, where the evaluator scores the board itself. The best scores worked out go in a
+ * transposition table, if there is one, keyed by cacheKey().
+ *
+ * A search can be given a deadline. Once it has passed the search returns early, with meaningless
+ * scores, and is marked aborted; scores cut short that way never go in the table.
+ * A search keeps state between calls, so each thread searching needs one of its own.
+ */
+final class Expectimax {
+
+    private final TetrisPiece[][] rotations; //every rotation of every piece that could come next, by piece id
+    private final AutoPilot evaluator; //scores the boards at the leaves of the search
+    private final TranspositionTable cache; //null for none
+    private long deadline; //System.nanoTime() the search must finish by, if timed
+    private boolean timed;
+    private boolean aborted; //the deadline passed
+
+    /**
+     * Constructor
+     *
+     * @param rotations every rotation of each piece that could come next, by piece id
+     * @param evaluator pilot whose evaluateBoard scores the boards the search reaches
+     * @param cache table to keep the scores in, or null for none
+     */
+    Expectimax(TetrisPiece[][] rotations, AutoPilot evaluator, TranspositionTable cache) {
+        this.rotations = rotations;
+        this.evaluator = evaluator;
+        this.cache = cache;
+    }
+
+    /**
+     * Time the searches from now on, and clear the aborted mark
+     *
+     * @param deadline System.nanoTime() the searches must finish by
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.timed = true;
+        this.aborted = false;
+    }
+
+    /**
+     * Getter for whether a search ran out of time since the deadline was set
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Transposition table key of a search node: what bestScore() depends on besides the evaluator.
+     */
+    static long cacheKey(TetrisBoard board, int pieceId, int remaining, int rowsCleared) {
+        return board.getHash() ^ ((pieceId + 1) * 0xD1B54A32D192ED03L + remaining * 0xABC98388FB8FAC03L
+                + rowsCleared * 0x8CB92BA72F3D8DD7L);
+    }
+
+    /**
+     * Scores the board a placement leads to: its own score when the search stops there,
+     * otherwise the average over every next piece of the best score that piece can reach.
+     *
+     * @param board board after the placement; left as it was found
+     * @param remaining pieces still to search
+     * @param rowsCleared rows cleared so far along this line of play
+     * @return the expected score, bigger is worse
+     */
+    double expectedScore(TetrisBoard board, int remaining, int rowsCleared) {
+        if (remaining == 0) return evaluator.evaluateBoard(board, rowsCleared);
+        double total = 0;
+        for (int pieceId = 0; pieceId < rotations.length; pieceId++) {
+            total += bestScore(board, pieceId, remaining, rowsCleared);
+            if (aborted) return total;
+        }
+        return total / rotations.length;
+    }
+
+    /**
+     * Scores the best placement of one piece, searching the pieces after it as well.
+     *
+     * @param board board to place on; left as it was found
+     * @param pieceId id of the piece
+     * @param remaining pieces still to search, counting this one
+     * @param rowsCleared rows cleared so far along this line of play
+     * @return the best score, bigger is worse
+     */
+    double bestScore(TetrisBoard board, int pieceId, int remaining, int rowsCleared) {
+        if (timed && System.nanoTime() - deadline > 0) {
+            aborted = true;
+            return 0;
+        }
+        long key = 0;
+        if (cache != null) {
+            key = cacheKey(board, pieceId, remaining, rowsCleared);
+            double cached = cache.get(key);
+            if (!Double.isNaN(cached)) return cached;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (TetrisPiece rotation : rotations[pieceId]) {
+            for (int x = 0; x + rotation.getWidth() <= board.getWidth(); x++) {
+                int y = board.placementHeight(rotation, x);
+                if (y + rotation.getHeight() > board.getHeight()) continue;
+                board.pushCheckpoint();
+                if (board.placePiece(rotation, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+                    int cleared = board.clearRows();
+                    double score = expectedScore(board, remaining - 1, rowsCleared + cleared);
+                    if (score < best) best = score;
+                }
+                board.popCheckpoint();
+                if (aborted) return best;
+            }
+        }
+        if (cache != null) cache.put(key, best);
+        return best;
+    }
+}
@@ -0,0 +1,146 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reads the .ser files written by older versions of the game, which saved the whole TetrisModel
+ * object graph with Java serialization.
+ *
+ * The model classes have changed since, so those files no longer deserialize into them. Instead,
+ * the old classes are mapped onto copies of their old field layout below, and a current model
+ * is built from what was read.
+ */
+class LegacySave {
+
+    //old class names, mapped to the classes that mirror their old fields
+    private static final Map<String, Class<?>> MIRRORS = new HashMap<>();
+    static {
+        MIRRORS.put("model.TetrisModel", Model.class);
+        MIRRORS.put("model.TetrisBoard", Board.class);
+        MIRRORS.put("model.TetrisPiece", Piece.class);
+        MIRRORS.put("[Lmodel.TetrisPiece;", Piece[].class);
+        MIRRORS.put("model.AutoPilot", Pilot.class);
+    }
+
+    private LegacySave() {}
+
+    /**
+     * Load a model from a .ser file written by an older version of the game.
+     * The random generator of the old game cannot be carried over, so the loaded game
+     * picks its next pieces from a freshly seeded one.
+     *
+     * @param path file to read
+     * @return the saved model
+     */
+    static TetrisModel read(Path path) throws IOException {
+        Model old;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             ObjectInputStream in = new MirroringInputStream(Channels.newInputStream(channel))) {
+            Object object = in.readObject();
+            if (!(object instanceof Model)) throw new IOException("Not a saved game: " + path);
+            old = (Model) object;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Not a saved game: " + path, e);
+        }
+
+        TetrisModel model = new TetrisModel();
+        TetrisBoard board = model.board;
+        Board oldBoard = old.board;
+        if (oldBoard.width != board.getWidth() || oldBoard.height != board.getHeight()) {
+            throw new IOException("Saved board is " + oldBoard.width + "x" + oldBoard.height + ", expected "
+                    + board.getWidth() + "x" + board.getHeight());
+        }
+
+        //an uncommitted board holds the falling piece; its backup is the grid without it
+        boolean[][] grid = oldBoard.committed ? oldBoard.tetrisGrid : oldBoard.backupGrid;
+        long[] rows = new long[oldBoard.height];
+        for (int x = 0; x < oldBoard.width; x++) {
+            for (int y = 0; y < oldBoard.height; y++) {
+                if (grid[x][y]) rows[y] |= 1L << x;
+            }
+        }
+        board.loadRows(rows);
+
+        model.pieceSource = new UniformPieceSource(new Random().nextLong(), model.pieces.length);
+        model.score = old.score;
+        model.count = old.count;
+        model.gameOn = old.gameOn;
+        if (old.autoPilotMode) model.setAutoPilotMode();
+        if (old.currentPiece != null && !oldBoard.committed) {
+            int[] idAndRotation = SaveFile.findPiece(model.pieces, new TetrisPiece(old.currentPiece.body));
+            if (idAndRotation == null) throw new IOException("Saved game has an unknown piece");
+            TetrisPiece piece = model.pieces[idAndRotation[0]];
+            for (int i = 0; i < idAndRotation[1]; i++) piece = piece.fastRotation();
+            model.setCurrent(piece, old.currentX, old.currentY);
+        }
+        model.publish();
+        return model;
+    }
+
+    /**
+     * Object stream that reads the old model classes as their mirrors.
+     */
+    private static class MirroringInputStream extends ObjectInputStream {
+        MirroringInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            Class<?> mirror = MIRRORS.get(descriptor.getName());
+            return mirror == null ? descriptor : ObjectStreamClass.lookup(mirror);
+        }
+    }
+
+    //Mirrors of the old classes. Field names and types must stay exactly as they were saved.
+
+    private static class Model implements Serializable {
+        Board board;
+        Piece[] pieces;
+        Piece currentPiece;
+        Piece newPiece;
+        int count;
+        int score;
+        int currentX, newX;
+        int currentY, newY;
+        boolean gameOn;
+        Random random;
+        boolean autoPilotMode;
+        Object pilot;
+    }
+
+    private static class Board implements Serializable {
+        int width;
+        int height;
+        boolean[][] tetrisGrid;
+        boolean committed;
+        int[] colCounts;
+        int[] rowCounts;
+        boolean[][] backupGrid;
+        int[] backupColCounts;
+        int[] backupRowCounts;
+    }
+
+    private static class Piece implements Serializable {
+        TetrisPoint[] body;
+        int[] lowestYVals;
+        int width;
+        int height;
+        Piece next;
+    }
+
+    private static class Pilot implements Serializable {
+    }
+}
@@ -0,0 +1,312 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/** Represents a look-ahead pilot for Tetris.
+ * Every placement of the current piece is scored by the placements of the pieces that may follow it,
+ * averaged over every piece that could come next. The search tree is spread across a ForkJoinPool
+ * shared by every pilot of the same parallelism, and each worker thread searches on its own copy of the board.
+ * Each worker also keeps a transposition table of the best scores it has worked out, keyed by the
+ * board's hash, so positions reached again, by another order of moves or on the next tick, are not searched twice.
+ * The boards and tables belong to the pilot, indexed by the workers' pool index, so they go with it when
+ * it is dropped, while the pool's threads live on.
+ */
+public class LookAheadPilot implements TetrisPilot, Serializable {
+
+    private final int depth; //pieces searched, counting the current one
+    private final int parallelism; //worker threads in the pool
+    private final AutoPilot evaluator; //scores the boards at the leaves of the search
+    private final int cacheSize; //transposition table entries per worker thread, 0 for none
+
+    //transposition table entries per worker thread for a pilot built without a cache size
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    //search state, rebuilt after deserialization
+    private transient ForkJoinPool pool; //shared with the other pilots of the same parallelism, see SearchPools
+    private transient volatile Worker[] workers; //each worker thread's search state, by pool index + 1
+    private transient TetrisBoard root; //the board without the falling piece, read by every worker
+    private transient TetrisPiece[][] rotations; //every rotation of every piece that could come next, by piece id
+    private transient List<TranspositionTable> caches; //every worker's table, for the counters
+
+    /**
+     * Constructor for a pilot that looks one piece ahead, using every available core
+     */
+    public LookAheadPilot() {
+        this(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for a pilot with the default evaluation weights
+     *
+     * @param depth number of pieces to search, counting the current one; 1 searches the current piece only
+     * @param parallelism number of worker threads to search with
+     */
+    public LookAheadPilot(int depth, int parallelism) {
+        this(depth, parallelism, new AutoPilot());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param depth number of pieces to search, counting the current one; 1 searches the current piece only
+     * @param parallelism number of worker threads to search with
+     * @param evaluator pilot whose evaluateBoard scores the boards the search reaches
+     */
+    public LookAheadPilot(int depth, int parallelism, AutoPilot evaluator) {
+        this(depth, parallelism, evaluator, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param depth number of pieces to search, counting the current one; 1 searches the current piece only
+     * @param parallelism number of worker threads to search with
+     * @param evaluator pilot whose evaluateBoard scores the boards the search reaches
+     * @param cacheSize transposition table entries per worker thread, 0 for no table
+     */
+    public LookAheadPilot(int depth, int parallelism, AutoPilot evaluator, int cacheSize) {
+        if (depth < 1) throw new IllegalArgumentException("Search depth must be at least 1: " + depth);
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        if (cacheSize < 0) throw new IllegalArgumentException("Cache size cannot be negative: " + cacheSize);
+        this.depth = depth;
+        this.parallelism = parallelism;
+        this.evaluator = evaluator;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Getter for the search depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Getter for the number of worker threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Getter for the number of positions found in the workers' transposition tables.
+     * Only exact between searches.
+     */
+    public long getCacheHits() {
+        long hits = 0;
+        if (caches != null) for (TranspositionTable cache : caches) hits += cache.getHits();
+        return hits;
+    }
+
+    /**
+     * Getter for the number of positions looked up in the workers' transposition tables and not found.
+     * Only exact between searches.
+     */
+    public long getCacheMisses() {
+        long misses = 0;
+        if (caches != null) for (TranspositionTable cache : caches) misses += cache.getMisses();
+        return misses;
+    }
+
+    /**
+     * Fraction of transposition table lookups that found their position
+     *
+     * @return hits / lookups, or 0 before the first lookup
+     */
+    public double getCacheHitRate() {
+        long hits = getCacheHits(), lookups = hits + getCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Given a piece and a board, return the next move towards the placement with the best
+     * expected score over the next depth - 1 pieces. The board passed in is not changed.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param currentY  Where the current piece is currently located (Y position)
+     * @return The best move (Rotate, Left, Right or Drop)
+     */
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        if (piece == null) return TetrisModel.MoveType.DOWN;
+        if (pool == null) {
+            pool = SearchPools.get(parallelism);
+            rotations = TetrisPiece.getPieceTable().rotationsById();
+            workers = new Worker[parallelism + 1];
+            caches = new CopyOnWriteArrayList<>();
+        }
+        if (root == null || root.getWidth() != board.getWidth() || root.getHeight() != board.getHeight()) {
+            root = new TetrisBoard(board.getWidth(), board.getHeight(), 0);
+        }
+        root.copyFrom(board);
+        root.undo(); //take the falling piece off
+
+        //the placements of the current piece, in the order AutoPilot tries them so ties break the same way
+        TetrisPiece[] ring = TetrisPiece.ringOf(piece);
+        int[] heights = new int[board.getWidth()];
+        int maxCandidates = ring.length * board.getWidth();
+        TetrisPiece[] candidatePieces = new TetrisPiece[maxCandidates];
+        int[] candidateX = new int[maxCandidates];
+        int[] candidateY = new int[maxCandidates];
+        int candidates = 0;
+        for (TetrisPiece rotation : ring) {
+            int positions = root.placementHeights(rotation, heights);
+            for (int x = 0; x < positions; x++) {
+                if (heights[x] + rotation.getHeight() > board.getHeight()) continue;
+                candidatePieces[candidates] = rotation;
+                candidateX[candidates] = x;
+                candidateY[candidates] = heights[x];
+                candidates++;
+            }
+        }
+
+        double[] scores = new double[candidates];
+        pool.invoke(new CandidatesTask(candidatePieces, candidateX, candidateY, scores, 0, candidates));
+
+        int best = -1;
+        for (int i = 0; i < candidates; i++) {
+            if (best < 0 || scores[i] < scores[best]) best = i;
+        }
+        if (best < 0) return AutoPilot.stepTowards(piece, currentX, null, 0);
+        return AutoPilot.stepTowards(piece, currentX, candidatePieces[best], candidateX[best]);
+    }
+
+    /**
+     * Returns this worker thread's board, loaded with the root board.
+     */
+    private TetrisBoard workerBoard() {
+        Worker worker = worker();
+        TetrisBoard board = worker.board;
+        if (board == null || board.getWidth() != root.getWidth() || board.getHeight() != root.getHeight()) {
+            board = new TetrisBoard(root.getWidth(), root.getHeight(), depth);
+            worker.board = board;
+        }
+        board.copyFrom(root);
+        return board;
+    }
+
+    /**
+     * Returns this worker thread's search state, making it the first time the worker searches for this pilot.
+     * Pool indices can go past the parallelism, e.g. when the pool replaces a worker, so the array grows to fit.
+     */
+    private Worker worker() {
+        Thread thread = Thread.currentThread();
+        //the pool runs every task on its workers; any other thread gets slot 0
+        int index = thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool
+                ? ((ForkJoinWorkerThread) thread).getPoolIndex() + 1 : 0;
+        Worker[] all = workers;
+        Worker worker = index < all.length ? all[index] : null;
+        return worker != null ? worker : newWorker(index);
+    }
+
+    private synchronized Worker newWorker(int index) {
+        if (index >= workers.length) workers = Arrays.copyOf(workers, Math.max(index + 1, 2 * workers.length));
+        TranspositionTable cache = null;
+        if (cacheSize > 0) {
+            cache = new TranspositionTable(cacheSize);
+            caches.add(cache);
+        }
+        Worker worker = new Worker(new Expectimax(rotations, evaluator, cache));
+        workers[index] = worker;
+        return worker;
+    }
+
+    /**
+     * The board and the search, with its transposition table, that one worker thread uses for this pilot.
+     */
+    private static class Worker {
+        private final Expectimax search;
+        private TetrisBoard board;
+
+        Worker(Expectimax search) {
+            this.search = search;
+        }
+    }
+
+    /**
+     * Scores a range of candidate placements, splitting the range in half until one candidate is left.
+     */
+    private class CandidatesTask extends RecursiveAction {
+        private final TetrisPiece[] pieces;
+        private final int[] xs, ys;
+        private final double[] scores;
+        private final int from, to;
+
+        CandidatesTask(TetrisPiece[] pieces, int[] xs, int[] ys, double[] scores, int from, int to) {
+            this.pieces = pieces;
+            this.xs = xs;
+            this.ys = ys;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CandidatesTask(pieces, xs, ys, scores, from, mid),
+                        new CandidatesTask(pieces, xs, ys, scores, mid, to));
+                return;
+            }
+            if (to == from) return;
+            if (depth == 1) {
+                TetrisBoard board = workerBoard();
+                scores[from] = scoreCandidate(board);
+                return;
+            }
+            //one subtask per piece that could come next, each searching on its own board
+            NextPieceTask[] next = new NextPieceTask[rotations.length];
+            for (int i = 0; i < next.length; i++) next[i] = new NextPieceTask(this, i);
+            invokeAll(next);
+            double total = 0;
+            for (NextPieceTask task : next) total += task.score;
+            scores[from] = total / next.length;
+        }
+
+        /**
+         * Places this candidate on a worker board and scores it without looking further ahead.
+         */
+        private double scoreCandidate(TetrisBoard board) {
+            if (board.placePiece(pieces[from], xs[from], ys[from]) > TetrisBoard.ADD_ROW_FILLED) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return evaluator.evaluateBoard(board, board.clearRows());
+        }
+    }
+
+    /**
+     * Scores the best reply of one next piece to a candidate placement.
+     */
+    private class NextPieceTask extends RecursiveAction {
+        private final CandidatesTask candidate;
+        private final int pieceId;
+        private double score;
+
+        NextPieceTask(CandidatesTask candidate, int pieceId) {
+            this.candidate = candidate;
+            this.pieceId = pieceId;
+        }
+
+        @Override
+        protected void compute() {
+            TetrisBoard board = workerBoard();
+            int i = candidate.from;
+            if (board.placePiece(candidate.pieces[i], candidate.xs[i], candidate.ys[i]) > TetrisBoard.ADD_ROW_FILLED) {
+                score = Double.POSITIVE_INFINITY;
+                return;
+            }
+            int cleared = board.clearRows();
+            board.commit();
+            score = worker().search.bestScore(board, pieceId, depth - 1, cleared);
+        }
+    }
+}
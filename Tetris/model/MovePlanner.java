@@ -0,0 +1,261 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** Represents a move planner for Tetris.
+ * Instead of choosing each move from scratch every tick, the planner searches once per piece,
+ * breadth first, over every (rotation, x, y) the falling piece can reach, moving it by the same rules
+ * as TetrisModel.computeNewPosition and letting gravity pull it down a row after each move.
+ * That finds placements a straight drop cannot reach, like sliding under an overhang (a tuck)
+ * or rotating into a slot on the way down (a spin). Placements are scored with an AutoPilot's evaluateBoard.
+ *
+ * The moves to the best placement are kept and played back one per tick, at no cost, as long as
+ * the piece is where the plan expects it to be. If it is not, e.g. because a player moved it, the planner plans again.
+ */
+public class MovePlanner implements TetrisPilot, Serializable {
+
+    //moves tried from each position, in this order; the earlier move wins between equally short paths
+    private static final TetrisModel.MoveType[] MOVES = {
+            TetrisModel.MoveType.ROTATE,
+            TetrisModel.MoveType.LEFT,
+            TetrisModel.MoveType.RIGHT,
+            TetrisModel.MoveType.DROP,
+            TetrisModel.MoveType.DOWN,
+    };
+
+    private final AutoPilot evaluator; //scores the placements the search reaches
+
+    //search state, rebuilt after deserialization. A position (rotation, x, y) is numbered
+    //(rotation * height + y) * width + x, and stamped with the search that last reached it,
+    //so nothing has to be cleared between searches
+    private transient TetrisBoard scratch; //the board without the falling piece
+    private transient TetrisPiece[] rotations; //rotations of the piece being planned, starting from the one it is in
+    private transient int[] reached, parent; //stamp of each position, and the position it was reached from
+    private transient byte[] parentMove; //index into MOVES of the move that reached it
+    private transient int[] placed, placedFrom; //stamp of each position the piece can come to rest at, and the position it was moved from
+    private transient byte[] placedMove;
+    private transient int[] queue, placements;
+    private transient int stamp;
+
+    //the plan: the move to make from each position on the way, and the board expected there
+    private transient TetrisModel.MoveType[] pathMoves;
+    private transient TetrisPiece[] pathPieces;
+    private transient int[] pathX, pathY;
+    private transient long[] pathHashes;
+    private transient int pathLength, pathStep;
+    private transient long plans;
+
+    /**
+     * Constructor for a planner using the default evaluation weights
+     */
+    public MovePlanner() {
+        this(new AutoPilot());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param evaluator pilot whose evaluateBoard scores the placements the planner can reach
+     */
+    public MovePlanner(AutoPilot evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Getter for the number of searches run so far; one per piece, unless a plan had to be redone
+     */
+    public long getPlanCount() {
+        return plans;
+    }
+
+    /**
+     * Given a piece and a board, return the next move of the plan for this piece,
+     * planning it first if the piece is not where the plan expects it to be.
+     * The board passed in is not changed.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param currentY  Where the current piece is currently located (Y position)
+     * @return The next move of the plan
+     */
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        if (piece == null) return TetrisModel.MoveType.DOWN;
+        if (pathStep >= pathLength || pathPieces[pathStep] != piece || pathX[pathStep] != currentX
+                || pathY[pathStep] != currentY || pathHashes[pathStep] != board.getHash()) {
+            plan(board, piece, currentX, currentY);
+        }
+        if (pathLength == 0) return TetrisModel.MoveType.DROP; //nowhere to go, just let it fall
+        return pathMoves[pathStep++];
+    }
+
+    /**
+     * Search every position the piece can reach from where it is, and keep the path to the best placement.
+     */
+    private void plan(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        plans++;
+        prepare(board, piece);
+        int width = board.getWidth(), height = board.getHeight();
+        int area = width * height;
+        int start = currentY * width + currentX;
+        reached[start] = stamp;
+
+        int head = 0, tail = 0, placementCount = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int from = queue[head++];
+            int r = from / area, y = from % area / width, x = from % width;
+            TetrisPiece rotation = rotations[r];
+            for (int m = 0; m < MOVES.length; m++) {
+                //where the move leaves the piece, as computeNewPosition and setCurrent would
+                int nr = r, nx = x, ny = y;
+                switch (MOVES[m]) {
+                    case ROTATE:
+                        nr = (r + 1) % rotations.length;
+                        nx = x + (rotation.getWidth() - rotations[nr].getWidth()) / 2;
+                        ny = y + (rotation.getHeight() - rotations[nr].getHeight()) / 2;
+                        break;
+                    case LEFT: nx--; break;
+                    case RIGHT: nx++; break;
+                    case DROP: ny = Math.min(scratch.placementHeight(rotation, x), y); break;
+                    case DOWN: ny--; break;
+                }
+                if (!scratch.canPlace(rotations[nr], nx, ny)) {
+                    if (MOVES[m] == TetrisModel.MoveType.DOWN) { //a DOWN that fails lands the piece where it is
+                        placementCount = addPlacement(from, from, m, placementCount);
+                        continue;
+                    }
+                    nr = r; nx = x; ny = y; //any other move that fails leaves it where it was
+                }
+                //then gravity moves it down a row on the next tick, or lands it if it can't
+                int to = (nr * height + ny) * width + nx;
+                if (!scratch.canPlace(rotations[nr], nx, ny - 1)) {
+                    placementCount = addPlacement(to, from, m, placementCount);
+                } else if (reached[to - width] != stamp) {
+                    reached[to - width] = stamp;
+                    parent[to - width] = from;
+                    parentMove[to - width] = (byte) m;
+                    queue[tail++] = to - width;
+                }
+            }
+        }
+
+        //score every placement; ties go to the one found first, i.e. the one with the shortest path
+        int best = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < placementCount; i++) {
+            int p = placements[i];
+            double score = scorePlacement(rotations[p / area], p % width, p % area / width);
+            if (best < 0 || score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        pathLength = pathStep = 0;
+        if (best < 0) return;
+
+        //walk back from the placement to the start, then fill in the path front to back
+        int p = placements[best];
+        pathLength = 1;
+        for (int s = placedFrom[p]; s != start; s = parent[s]) pathLength++;
+        int s = placedFrom[p];
+        int m = placedMove[p];
+        for (int i = pathLength - 1; i >= 0; i--) {
+            TetrisPiece rotation = rotations[s / area];
+            pathMoves[i] = MOVES[m];
+            pathPieces[i] = rotation;
+            pathX[i] = s % width;
+            pathY[i] = s % area / width;
+            if (i == 0) {
+                pathHashes[i] = board.getHash();
+            } else {
+                //the hash the board will have with the piece here
+                scratch.pushCheckpoint();
+                scratch.placePiece(rotation, pathX[i], pathY[i]);
+                pathHashes[i] = scratch.getHash();
+                scratch.popCheckpoint();
+                m = parentMove[s];
+                s = parent[s];
+            }
+        }
+    }
+
+    /**
+     * Record a position the piece can come to rest at, reached by a move from another position,
+     * unless a shorter path to it was already found.
+     *
+     * @return the new number of placements
+     */
+    private int addPlacement(int position, int from, int move, int placementCount) {
+        if (placed[position] == stamp) return placementCount;
+        placed[position] = stamp;
+        placedFrom[position] = from;
+        placedMove[position] = (byte) move;
+        placements[placementCount] = position;
+        return placementCount + 1;
+    }
+
+    /**
+     * Place a piece on the scratch board, clear rows, score the result and put the board back.
+     */
+    private double scorePlacement(TetrisPiece rotation, int x, int y) {
+        scratch.pushCheckpoint();
+        double score = Double.POSITIVE_INFINITY;
+        if (scratch.placePiece(rotation, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+            score = evaluator.evaluateBoard(scratch, scratch.clearRows());
+        }
+        scratch.popCheckpoint();
+        return score;
+    }
+
+    /**
+     * Load the scratch board, list the rotations of the piece and make sure the search arrays are big enough.
+     */
+    private void prepare(TetrisBoard board, TetrisPiece piece) {
+        int width = board.getWidth(), height = board.getHeight();
+        if (scratch == null || scratch.getWidth() != width || scratch.getHeight() != height) {
+            scratch = new TetrisBoard(width, height, 1);
+            pathMoves = new TetrisModel.MoveType[height + 1]; //each move is followed by a fall, so a path is at most height long
+            pathPieces = new TetrisPiece[height + 1];
+            pathX = new int[height + 1];
+            pathY = new int[height + 1];
+            pathHashes = new long[height + 1];
+            reached = null;
+        }
+        scratch.copyFrom(board);
+        scratch.undo(); //take the falling piece off
+
+        int count = 0;
+        TetrisPiece rotation = piece;
+        do {
+            count++;
+            rotation = rotation.fastRotation();
+        } while (rotation != null && rotation != piece);
+        if (rotations == null || rotations.length != count) rotations = new TetrisPiece[count];
+        rotation = piece;
+        for (int i = 0; i < count; i++) {
+            rotations[i] = rotation;
+            rotation = rotation.fastRotation();
+        }
+
+        int positions = count * width * height;
+        if (reached == null || reached.length < positions) {
+            reached = new int[positions];
+            parent = new int[positions];
+            parentMove = new byte[positions];
+            placed = new int[positions];
+            placedFrom = new int[positions];
+            placedMove = new byte[positions];
+            queue = new int[positions];
+            placements = new int[positions];
+            stamp = 0;
+        }
+        if (++stamp == 0) { //stamps wrapped around, forget the old ones
+            Arrays.fill(reached, 0);
+            Arrays.fill(placed, 0);
+            stamp = 1;
+        }
+    }
+}
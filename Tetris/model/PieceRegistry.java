@@ -0,0 +1,154 @@
+package model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A named set of pieces, with every rotation of every piece computed when the set is registered.
+ *
+ * Piece ids are the positions of the pieces in the set and never change, so they can be stored in
+ * save files, replays and piece sources. The standard set is built once, when the class is loaded,
+ * so threads never race to build it. Custom sets, e.g. pentominoes, are registered under a name
+ * and can be looked up from any thread.
+ */
+public final class PieceRegistry {
+
+    public static final String STANDARD = "standard"; //name of the standard set
+
+    private static final ConcurrentMap<String, PieceRegistry> SETS = new ConcurrentHashMap<>();
+
+    //the 7 standard pieces; ids 0 to 6 in this order
+    private static final PieceRegistry STANDARD_SET = new PieceRegistry(STANDARD, new String[]{
+            TetrisPiece.STICK_STR,
+            TetrisPiece.L1_STR,
+            TetrisPiece.L2_STR,
+            TetrisPiece.S1_STR,
+            TetrisPiece.S2_STR,
+            TetrisPiece.SQUARE_STR,
+            TetrisPiece.PYRAMID_STR,
+    });
+    static {
+        SETS.put(STANDARD, STANDARD_SET);
+    }
+
+    private final String name;
+    private final TetrisPiece[] pieces; //first rotation of each piece, linked to the others
+    private final PieceTable table;
+
+    /**
+     * Builds a set, computing the rotations of each piece.
+     */
+    private PieceRegistry(String name, String[] bodies) {
+        if (bodies.length == 0) throw new IllegalArgumentException("Piece set " + name + " has no pieces");
+        this.name = name;
+        this.pieces = new TetrisPiece[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            TetrisPiece piece;
+            try {
+                piece = new TetrisPiece(bodies[i]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad piece \"" + bodies[i] + "\": " + e.getMessage(), e);
+            }
+            checkBody(piece, bodies[i]);
+            this.pieces[i] = TetrisPiece.makeFastRotations(piece);
+        }
+        this.table = new PieceTable(this.pieces);
+    }
+
+    /**
+     * Getter for the standard set of 7 pieces: STICK, L1, L2, S1, S2, SQUARE, PYRAMID, with ids 0 to 6.
+     */
+    public static PieceRegistry standard() {
+        return STANDARD_SET;
+    }
+
+    /**
+     * Register a custom set of pieces. Each body is given as in TetrisPiece(String), such as
+     * "0 0  1 0  2 0  1 1", and must touch x = 0 and y = 0 with no empty columns in between.
+     *
+     * @param name name to register the set under
+     * @param bodies body of each piece; the ids of the pieces follow this order
+     * @return the registered set
+     * @throws IllegalArgumentException if the name is taken or a body is malformed
+     */
+    public static PieceRegistry register(String name, String... bodies) {
+        PieceRegistry set = new PieceRegistry(name, bodies.clone());
+        if (SETS.putIfAbsent(name, set) != null) {
+            throw new IllegalArgumentException("A piece set named " + name + " is already registered");
+        }
+        return set;
+    }
+
+    /**
+     * Look up a registered set by name
+     *
+     * @param name name of the set
+     * @return the set, or null if none is registered under that name
+     */
+    public static PieceRegistry get(String name) {
+        return SETS.get(name);
+    }
+
+    /**
+     * Getter for the name of the set
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for the number of pieces in the set
+     */
+    public int size() {
+        return pieces.length;
+    }
+
+    /**
+     * Getter for a piece, in its first rotation
+     *
+     * @param id piece id
+     */
+    public TetrisPiece getPiece(int id) {
+        return pieces[id];
+    }
+
+    /**
+     * Getter for the pieces of the set, in their first rotation, by id.
+     *
+     * @return a copy of the array; the pieces themselves are shared
+     */
+    public TetrisPiece[] getPieces() {
+        return pieces.clone();
+    }
+
+    /**
+     * Getter for the table of every rotation of the pieces of the set
+     */
+    public PieceTable getTable() {
+        return table;
+    }
+
+    /**
+     * The array behind getPieces(), for TetrisPiece.getPieces(), which has always returned a shared array.
+     */
+    TetrisPiece[] sharedPieces() {
+        return pieces;
+    }
+
+    /**
+     * Checks that a body can be rotated with computeNextRotation(): its blocks must start at
+     * x = 0 and y = 0 and fill every column in between, or its rotations never come back round.
+     */
+    private static void checkBody(TetrisPiece piece, String body) {
+        int minY = Integer.MAX_VALUE;
+        for (TetrisPoint point : piece.getBody()) {
+            minY = Math.min(minY, point.y);
+        }
+        int[] tops = piece.getColumnTops();
+        boolean contiguous = tops != null && tops.length == piece.getWidth();
+        if (minY != 0 || !contiguous) {
+            throw new IllegalArgumentException("Bad piece \"" + body
+                    + "\": blocks must start at x = 0 and y = 0, with no empty columns");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * A source of pieces for the model.
+ * Pieces are identified by their index in TetrisPiece.getPieces().
+ */
+public interface PieceSource extends Serializable {
+
+    /**
+     * Returns the id of the next piece to play
+     *
+     * @return index into TetrisPiece.getPieces() of the next piece
+     */
+    int nextPieceId();
+
+    /**
+     * Fills an array with the ids of the next pieces, exactly as if nextPieceId() had been called
+     * once for each entry, in order.
+     *
+     * @param ids array to fill
+     */
+    default void fill(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nextPieceId();
+        }
+    }
+
+    /**
+     * Returns the ids of the next count pieces as a sequence, so that a simulation can play
+     * them without calling the random generator for every piece.
+     *
+     * @param count number of pieces to draw
+     * @return a source that plays those pieces
+     */
+    default SequencePieceSource prefetch(int count) {
+        int[] ids = new int[count];
+        fill(ids);
+        return new SequencePieceSource(ids);
+    }
+}
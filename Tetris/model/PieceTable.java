@@ -0,0 +1,101 @@
+package model;
+
+/**
+ * A table of every rotation of a set of pieces, indexed by (piece id, rotation). Each rotation gets
+ * a flat index, so the rotations of every piece can be kept in one array and stepped through in order.
+ *
+ * The shape of each rotation, as primitive row masks, skirt and column tops, is kept by the
+ * TetrisPiece itself, which is what the board reads when it places a piece.
+ */
+public final class PieceTable {
+
+    private final int[] firstRotation; //flat index of rotation 0 of each piece
+    private final int[] rotationCounts; //number of distinct rotations of each piece
+    private final TetrisPiece[] rotations; //the piece objects, by flat index
+
+    /**
+     * Constructor
+     *
+     * @param pieces the first rotation of each piece, with its rotations linked by makeFastRotations()
+     */
+    public PieceTable(TetrisPiece[] pieces) {
+        firstRotation = new int[pieces.length];
+        rotationCounts = new int[pieces.length];
+        int total = 0;
+        for (int id = 0; id < pieces.length; id++) {
+            firstRotation[id] = total;
+            TetrisPiece rotation = pieces[id];
+            do {
+                rotationCounts[id]++;
+                rotation = rotation.fastRotation();
+            } while (rotation != null && rotation != pieces[id]);
+            total += rotationCounts[id];
+        }
+
+        rotations = new TetrisPiece[total];
+        for (int id = 0; id < pieces.length; id++) {
+            TetrisPiece rotation = pieces[id];
+            for (int r = 0; r < rotationCounts[id]; r++) {
+                rotations[firstRotation[id] + r] = rotation;
+                rotation = rotation.fastRotation();
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of pieces in the table
+     */
+    public int getPieceCount() {
+        return firstRotation.length;
+    }
+
+    /**
+     * Getter for the total number of rotations of all pieces, i.e. one more than the largest flat index
+     */
+    public int getRotationTotal() {
+        return rotations.length;
+    }
+
+    /**
+     * Getter for the number of distinct rotations of a piece
+     *
+     * @param pieceId piece id
+     */
+    public int getRotationCount(int pieceId) {
+        return rotationCounts[pieceId];
+    }
+
+    /**
+     * Flat index of a rotation of a piece
+     *
+     * @param pieceId piece id
+     * @param rotation number of counter-clockwise turns from the first rotation, below getRotationCount(pieceId)
+     * @return index for getPiece()
+     */
+    public int index(int pieceId, int rotation) {
+        return firstRotation[pieceId] + rotation;
+    }
+
+    /**
+     * Getter for the piece object at a flat index
+     */
+    public TetrisPiece getPiece(int index) {
+        return rotations[index];
+    }
+
+    /**
+     * Lists the rotations of each piece, for the searching pilots.
+     *
+     * @return every rotation of each piece, by piece id, starting from the first rotation
+     */
+    TetrisPiece[][] rotationsById() {
+        TetrisPiece[][] result = new TetrisPiece[getPieceCount()][];
+        for (int id = 0; id < result.length; id++) {
+            result[id] = new TetrisPiece[rotationCounts[id]];
+            for (int r = 0; r < result[id].length; r++) {
+                result[id][r] = rotations[index(id, r)];
+            }
+        }
+        return result;
+    }
+}
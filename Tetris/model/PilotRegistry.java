@@ -0,0 +1,96 @@
+package model;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * The pilots that can play a game, by name.
+ *
+ * Pilots are discovered with ServiceLoader from META-INF/services/model.TetrisPilot, so a jar on the
+ * class path can add its own, and are named after their class, e.g. "AutoPilot". Pilots keep scratch
+ * state between moves, so the registry hands out a new one for every game rather than sharing them.
+ * The pilots are found once, when the class is loaded; more can be registered by hand from any thread.
+ */
+public final class PilotRegistry {
+
+    public static final String DEFAULT = "AutoPilot"; //name of the pilot models start with
+
+    private static final ConcurrentMap<String, Supplier<TetrisPilot>> PILOTS = new ConcurrentHashMap<>();
+    private static final List<String> NAMES = new CopyOnWriteArrayList<>(); //in the order they were found
+
+    static {
+        for (ServiceLoader.Provider<TetrisPilot> provider : ServiceLoader.load(TetrisPilot.class).stream().toList()) {
+            add(provider.type().getSimpleName(), provider::get);
+        }
+        add(DEFAULT, AutoPilot::new); //in case the services file is not on the class path
+    }
+
+    private PilotRegistry() {}
+
+    /**
+     * Register a pilot under a name
+     *
+     * @param name name to register the pilot under
+     * @param factory makes a new pilot each time it is called
+     * @throws IllegalArgumentException if the name is taken
+     */
+    public static void register(String name, Supplier<TetrisPilot> factory) {
+        if (!add(name, factory)) {
+            throw new IllegalArgumentException("A pilot named " + name + " is already registered");
+        }
+    }
+
+    /**
+     * Getter for the names of the registered pilots, in the order they were found or registered
+     */
+    public static List<String> getNames() {
+        return List.copyOf(NAMES);
+    }
+
+    /**
+     * Make a new pilot
+     *
+     * @param name name of the pilot
+     * @return a new pilot, sharing no state with any other
+     * @throws IllegalArgumentException if no pilot is registered under that name
+     */
+    public static TetrisPilot create(String name) {
+        return factory(name).get();
+    }
+
+    /**
+     * Make a new pilot that has a time budget for each move. A move that takes longer
+     * is made by a new AutoPilot instead; see BudgetedPilot.
+     *
+     * @param name name of the pilot
+     * @param budgetNanos time each move may take, in nanoseconds
+     * @return a new pilot, sharing no state with any other
+     * @throws IllegalArgumentException if no pilot is registered under that name
+     */
+    public static BudgetedPilot create(String name, long budgetNanos) {
+        return new BudgetedPilot(create(name), new AutoPilot(), budgetNanos);
+    }
+
+    /**
+     * Getter for the factory of a pilot, e.g. for HeadlessRunner, which makes one pilot per game
+     *
+     * @param name name of the pilot
+     * @return a factory making a new pilot each time it is called
+     * @throws IllegalArgumentException if no pilot is registered under that name
+     */
+    public static Supplier<TetrisPilot> factory(String name) {
+        Supplier<TetrisPilot> factory = PILOTS.get(name);
+        if (factory == null) throw new IllegalArgumentException("No pilot named " + name + "; try one of " + NAMES);
+        return factory;
+    }
+
+    private static boolean add(String name, Supplier<TetrisPilot> factory) {
+        if (PILOTS.putIfAbsent(name, factory) != null) return false;
+        NAMES.add(name);
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back a replay log written by ReplayRecorder.
+ *
+ * A game is replayed on a headless TetrisModel in human mode, by feeding it the moves it executed
+ * one tick at a time, with its pieces drawn from the piece ids of the same game. Nothing waits
+ * on a clock, so a game replays as fast as the model can play it.
+ */
+public class ReplayPlayer {
+
+    private final ShortBuffer records; //every record in the log
+    private final int width, height; //size of the board the games were played on
+    private final int[] gameStarts; //index of the GAME record of each game
+
+    /**
+     * Constructor. Maps the log into memory.
+     *
+     * @param path log to read
+     */
+    public ReplayPlayer(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < ReplayRecorder.HEADER_BYTES) throw new IOException("Not a replay log: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != ReplayRecorder.MAGIC) throw new IOException("Not a replay log: " + path);
+            short version = buffer.getShort();
+            if (version != ReplayRecorder.VERSION) throw new IOException("Unsupported replay log version " + version);
+            width = buffer.getShort();
+            height = buffer.getShort();
+            long count = buffer.getLong(ReplayRecorder.COUNT_OFFSET);
+            if (count < 0 || ReplayRecorder.HEADER_BYTES + count * ReplayRecorder.RECORD_BYTES > channel.size()) {
+                throw new IOException("Replay log is corrupt: it is shorter than its record count");
+            }
+            buffer.position(ReplayRecorder.HEADER_BYTES);
+            records = buffer.slice().asShortBuffer();
+            records.limit((int) count);
+        }
+
+        int games = 0;
+        for (int i = 0; i < records.limit(); i++) {
+            if (kind(i) == ReplayRecorder.GAME) games++;
+        }
+        gameStarts = new int[games];
+        games = 0;
+        for (int i = 0; i < records.limit(); i++) {
+            if (kind(i) == ReplayRecorder.GAME) gameStarts[games++] = i;
+        }
+    }
+
+    /**
+     * Getter for the number of games in the log
+     */
+    public int getGames() {
+        return gameStarts.length;
+    }
+
+    /**
+     * Getter for the number of records in the log
+     */
+    public int getRecords() {
+        return records.limit();
+    }
+
+    /**
+     * Replay one game from the log.
+     *
+     * @param game index of the game, from 0
+     * @return the model at the end of the recorded moves
+     */
+    public TetrisModel replay(int game) throws IOException {
+        if (game < 0 || game >= gameStarts.length) {
+            throw new IllegalArgumentException("No game " + game + " in a log of " + gameStarts.length);
+        }
+        int from = gameStarts[game] + 1;
+        int to = game + 1 < gameStarts.length ? gameStarts[game + 1] : records.limit();
+
+        TetrisModel model = new TetrisModel();
+        if (width != model.board.getWidth() || height != model.board.getHeight()) {
+            throw new IOException("Replayed board is " + width + "x" + height + ", expected "
+                    + model.board.getWidth() + "x" + model.board.getHeight());
+        }
+
+        //the pieces are read ahead, so the model draws the recorded ones in order
+        int pieceCount = 0;
+        for (int i = from; i < to; i++) {
+            if (kind(i) == ReplayRecorder.PIECE) pieceCount++;
+        }
+        if (pieceCount == 0) throw new IOException("Replay log is corrupt: game " + game + " has no pieces");
+        int[] ids = new int[pieceCount];
+        pieceCount = 0;
+        for (int i = from; i < to; i++) {
+            if (kind(i) != ReplayRecorder.PIECE) continue;
+            int id = value(i);
+            if (id >= model.pieces.length) throw new IOException("Replay log is corrupt: unknown piece " + id);
+            ids[pieceCount++] = id;
+        }
+
+        TetrisModel.MoveType[] moves = TetrisModel.MoveType.values();
+        model.startGame(new SequencePieceSource(ids));
+        for (int i = from; i < to; i++) {
+            if (kind(i) != ReplayRecorder.MOVE) continue;
+            int move = value(i);
+            if (move >= moves.length) throw new IOException("Replay log is corrupt: unknown move " + move);
+            model.modelTick(moves[move]);
+        }
+        return model;
+    }
+
+    private int kind(int i) {
+        return (records.get(i) >>> 8) & 0xFF;
+    }
+
+    private int value(int i) {
+        return records.get(i) & 0xFF;
+    }
+
+    /**
+     * Main method. Replays every game of the log named on the command line and prints how it ended.
+     *
+     * @param args the log to replay
+     */
+    public static void main(String[] args) throws IOException {
+        ReplayPlayer player = new ReplayPlayer(Path.of(args[0]));
+        long start = System.nanoTime();
+        for (int game = 0; game < player.getGames(); game++) {
+            TetrisModel model = player.replay(game);
+            System.out.println("game " + game + ": score " + model.getScore() + ", " + model.getCount()
+                    + " pieces" + (model.isGameOn() ? "" : ", lost"));
+        }
+        System.out.printf("%d records replayed in %.3f s%n", player.getRecords(), (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,139 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only replay log of the games played by a TetrisModel.
+ *
+ * The log is a memory-mapped file holding, in big-endian order:
+ * <pre>
+ *   int    magic "TTRP"
+ *   short  format version
+ *   short  board width, short board height
+ *   6 bytes unused, so the count is aligned
+ *   long   number of records written
+ *   then one 2-byte record per event: the kind in the high byte, its value in the low byte
+ * </pre>
+ * A GAME record starts each game, a PIECE record holds the id of each piece put in play, and a
+ * MOVE record holds the ordinal of each MoveType the model executed. The file is mapped a chunk
+ * at a time, so recording a move is a store into memory: no objects and no system calls, except
+ * when a chunk fills up and the next one is mapped.
+ */
+public class ReplayRecorder implements Closeable {
+
+    public static final String EXTENSION = ".rpl"; //extension of replay logs
+    public static final int MAGIC = 0x54545250; //"TTRP"
+    public static final short VERSION = 1;
+
+    static final int HEADER_BYTES = 24;
+    static final int COUNT_OFFSET = 16; //where the record count is in the header
+    static final int RECORD_BYTES = 2;
+
+    //kinds of record
+    static final int GAME = 1;
+    static final int PIECE = 2;
+    static final int MOVE = 3;
+
+    private static final int CHUNK_RECORDS = 1 << 16; //records mapped at a time
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer chunk; //where the next records go
+    private long chunkStart; //file offset of the chunk
+    private long records; //records written so far
+
+    /**
+     * Constructor. Creates the log, replacing the file if it exists.
+     *
+     * @param path file to write to
+     * @param width width of the board the games are played on
+     * @param height height of the board the games are played on
+     */
+    public ReplayRecorder(Path path, int width, int height) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) width).putShort((short) height);
+            header.putLong(COUNT_OFFSET, 0);
+            mapChunk(HEADER_BYTES);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Record the start of a game.
+     */
+    public void recordGame() {
+        append(GAME, 0);
+    }
+
+    /**
+     * Record a piece put in play.
+     *
+     * @param pieceId index of the piece in TetrisPiece.getPieces()
+     */
+    public void recordPiece(int pieceId) {
+        append(PIECE, pieceId);
+    }
+
+    /**
+     * Record a move executed by the model.
+     *
+     * @param verb the move
+     */
+    public void recordMove(TetrisModel.MoveType verb) {
+        append(MOVE, verb.ordinal());
+    }
+
+    /**
+     * Getter for the number of records written
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Write the mapped pages out to the file, so the log survives a crash of the machine.
+     * Not needed for the log to survive a crash of the program.
+     */
+    public void flush() {
+        chunk.force();
+        header.force();
+    }
+
+    /**
+     * Flush the log and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        flush();
+        channel.close();
+    }
+
+    private void append(int kind, int value) {
+        if (!chunk.hasRemaining()) {
+            try {
+                mapChunk(chunkStart + chunk.capacity());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        chunk.putShort((short) (kind << 8 | value));
+        header.putLong(COUNT_OFFSET, ++records); //only records counted here are read back
+    }
+
+    private void mapChunk(long start) throws IOException {
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) CHUNK_RECORDS * RECORD_BYTES);
+        chunkStart = start;
+    }
+}
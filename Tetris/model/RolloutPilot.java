@@ -0,0 +1,346 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Represents a Monte Carlo rollout pilot for Tetris.
+ * The most promising placements of the falling piece, by AutoPilot's score, are each played on for a few
+ * more pieces, many times over, with random pieces from a seeded source and a greedy policy that puts
+ * every piece where an AutoPilot would. A placement scores the average of the boards its rollouts end on.
+ * Every placement is played on with the same random pieces, so the differences between them come from
+ * the placement and not from the luck of the draw.
+ *
+ * Rollouts run in rounds on a shared ForkJoinPool. A round gives each placement enough tasks of ROUND rollouts
+ * to keep every thread busy, and the pool's work stealing balances them. Each task has a board of its own that
+ * is reloaded with copyFrom for every rollout, so rollouts allocate nothing. Rounds go on until the next one
+ * would not finish before the deadline, a share of the tick interval as for AnytimePilot; the first round
+ * always runs, so there is always a move. The placement is decided once per piece.
+ */
+public class RolloutPilot implements TetrisPilot, Serializable {
+
+    public static final int DEFAULT_CANDIDATES = 6;
+    public static final int DEFAULT_ROLLOUT_DEPTH = 3;
+    public static final int DEFAULT_MAX_ROLLOUTS = 512;
+    public static final long DEFAULT_SEED = 0x5EED;
+    private static final int ROUND = 8; //rollouts of a placement per task
+
+    private final int candidates; //placements rolled out
+    private final int rolloutDepth; //pieces played after the placement in each rollout
+    private final int maxRollouts; //rollouts of each placement at most
+    private final int parallelism; //worker threads in the pool
+    private final long seed; //seed of the pieces the rollouts play
+    private final double tickFraction; //share of the tick interval each decision may take
+    private final long maxNanos; //most time a decision may take, however long the ticks are
+    private final AutoPilot evaluator; //picks the candidates, plays the rollouts and scores where they end
+    private volatile long tickNanos = AnytimePilot.DEFAULT_TICK_NANOS;
+
+    //rollout state, rebuilt after deserialization
+    private transient ForkJoinPool pool; //shared with the other pilots of the same parallelism, see SearchPools
+    private transient PieceSource source;
+    private transient int[] ids; //pieces of the rollouts so far: rollout r plays ids[r * rolloutDepth] onwards
+    private transient TetrisPiece[][] rotations; //every rotation of every piece that could come next, by piece id
+    private transient TetrisBoard root; //the board without the falling piece, read by every task
+    private transient int chunks; //tasks of ROUND rollouts each candidate gets per round
+    private transient TetrisBoard[] boards; //each task's board, by candidate * chunks + chunk
+    private transient int[][] heights; //each task's placement heights
+    private transient TetrisPiece[] candidatePieces;
+    private transient int[] candidateX, candidateY;
+    private transient double[] candidateScores; //AutoPilot's score of each candidate
+    private transient double[] totals; //sum of each candidate's rollout scores
+    private transient double[] partials; //sum of each task's rollout scores in the current round
+
+    //what has been decided for the falling piece
+    private transient TetrisPiece[] ring; //its rotations, starting from the one it was in when it was decided
+    private transient long rootHash; //hash of the board it is falling onto
+    private transient TetrisPiece target;
+    private transient int targetX;
+
+    private transient volatile long decisions, lastRollouts, lastLatencyNanos;
+
+    /**
+     * Constructor for a pilot with the default settings, using every available core
+     */
+    public RolloutPilot() {
+        this(DEFAULT_CANDIDATES, DEFAULT_ROLLOUT_DEPTH, DEFAULT_MAX_ROLLOUTS,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_SEED);
+    }
+
+    /**
+     * Constructor for a pilot with the default time limits and weights
+     *
+     * @param candidates placements to roll out, the best ones by AutoPilot's score
+     * @param rolloutDepth pieces to play after the placement in each rollout
+     * @param maxRollouts rollouts of each placement at most
+     * @param parallelism number of worker threads to roll out with
+     * @param seed seed of the pieces the rollouts play
+     */
+    public RolloutPilot(int candidates, int rolloutDepth, int maxRollouts, int parallelism, long seed) {
+        this(candidates, rolloutDepth, maxRollouts, parallelism, seed,
+                AnytimePilot.DEFAULT_TICK_FRACTION, AnytimePilot.DEFAULT_MAX_NANOS, new AutoPilot());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param candidates placements to roll out, the best ones by the evaluator's score
+     * @param rolloutDepth pieces to play after the placement in each rollout
+     * @param maxRollouts rollouts of each placement at most
+     * @param parallelism number of worker threads to roll out with
+     * @param seed seed of the pieces the rollouts play
+     * @param tickFraction share of the tick interval each decision may take, e.g. 0.15
+     * @param maxNanos most time a decision may take in nanoseconds, however long the ticks are
+     * @param evaluator pilot whose evaluateBoard picks the candidates, plays the rollouts and scores them
+     */
+    public RolloutPilot(int candidates, int rolloutDepth, int maxRollouts, int parallelism, long seed,
+                        double tickFraction, long maxNanos, AutoPilot evaluator) {
+        if (candidates < 1) throw new IllegalArgumentException("Need at least one candidate: " + candidates);
+        if (rolloutDepth < 0) throw new IllegalArgumentException("Rollout depth cannot be negative: " + rolloutDepth);
+        if (maxRollouts < 1) throw new IllegalArgumentException("Need at least one rollout: " + maxRollouts);
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        if (tickFraction <= 0 || maxNanos <= 0) throw new IllegalArgumentException("Time limits must be positive");
+        this.candidates = candidates;
+        this.rolloutDepth = rolloutDepth;
+        this.maxRollouts = maxRollouts;
+        this.parallelism = parallelism;
+        this.seed = seed;
+        this.tickFraction = tickFraction;
+        this.maxNanos = maxNanos;
+        this.evaluator = evaluator;
+    }
+
+    @Override
+    public void setTickInterval(long nanos) {
+        tickNanos = nanos > 0 ? nanos : AnytimePilot.DEFAULT_TICK_NANOS;
+    }
+
+    /**
+     * Getter for the time each decision may take now, in nanoseconds
+     */
+    public long getBudget() {
+        return Math.min((long) (tickFraction * tickNanos), maxNanos);
+    }
+
+    /**
+     * Getter for the number of pieces decided so far
+     */
+    public long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Getter for the rollouts of each candidate in the last decision
+     */
+    public long getLastRollouts() {
+        return lastRollouts;
+    }
+
+    /**
+     * Getter for the time the last decision took, in nanoseconds
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Given a piece and a board, return the next move towards the placement whose rollouts
+     * scored best, rolling them out first if the piece is new. The board passed in is not changed.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX  Where the current piece is currently located (X position)
+     * @param currentY  Where the current piece is currently located (Y position)
+     * @return The best move (Rotate, Left, Right or Drop)
+     */
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        if (piece == null) return TetrisModel.MoveType.DOWN;
+        if (pool == null) {
+            pool = SearchPools.get(parallelism);
+            rotations = TetrisPiece.getPieceTable().rotationsById();
+            source = new UniformPieceSource(seed, rotations.length);
+            ids = new int[maxRollouts * rolloutDepth];
+            chunks = Math.max(1, (2 * parallelism + candidates - 1) / candidates); //about two tasks per thread
+            partials = new double[candidates * chunks];
+        }
+        if (root == null || root.getWidth() != board.getWidth() || root.getHeight() != board.getHeight()) {
+            root = new TetrisBoard(board.getWidth(), board.getHeight(), 1);
+            boards = new TetrisBoard[candidates * chunks];
+            heights = new int[boards.length][board.getWidth()];
+            for (int i = 0; i < boards.length; i++) boards[i] = new TetrisBoard(board.getWidth(), board.getHeight(), 1);
+            ring = null;
+        }
+        root.copyFrom(board);
+        root.undo(); //take the falling piece off
+
+        if (ring == null || root.getHash() != rootHash || !TetrisPiece.inRing(ring, piece)) { //a new piece, decide where it goes
+            ring = TetrisPiece.ringOf(piece);
+            rootHash = root.getHash();
+            decide();
+        }
+        return AutoPilot.stepTowards(piece, currentX, target, targetX);
+    }
+
+    /**
+     * Pick the candidates, roll them out for as long as the budget allows, and keep the best as the target.
+     */
+    private void decide() {
+        long start = System.nanoTime();
+        long deadline = start + getBudget();
+        int count = pickCandidates();
+        target = null;
+        if (count == 0) return;
+
+        Arrays.fill(totals, 0, count, 0);
+        int done = 0;
+        long roundStart = start;
+        do {
+            int round = Math.min(ROUND * chunks, maxRollouts - done);
+            for (int i = done * rolloutDepth; i < (done + round) * rolloutDepth; i++) ids[i] = source.nextPieceId();
+            pool.invoke(new RolloutTask(0, count * chunks, done, round));
+            for (int c = 0; c < count; c++) {
+                for (int k = 0; k < chunks; k++) totals[c] += partials[c * chunks + k];
+            }
+            done += round;
+            long now = System.nanoTime();
+            long roundNanos = now - roundStart;
+            roundStart = now;
+            if (now + roundNanos - deadline > 0) break; //the next round would not finish in time
+        } while (done < maxRollouts);
+
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (totals[i] < totals[best]) best = i;
+        }
+        target = candidatePieces[best];
+        targetX = candidateX[best];
+        lastRollouts = done;
+        lastLatencyNanos = System.nanoTime() - start;
+        decisions++;
+    }
+
+    /**
+     * Scores every placement of the falling piece as AutoPilot does and keeps the best few as candidates,
+     * best first, ties going to the placement AutoPilot would try first.
+     *
+     * @return number of candidates, 0 if nothing fits
+     */
+    private int pickCandidates() {
+        if (candidatePieces == null) {
+            candidatePieces = new TetrisPiece[candidates];
+            candidateX = new int[candidates];
+            candidateY = new int[candidates];
+            candidateScores = new double[candidates];
+            totals = new double[candidates];
+        }
+        double[] scores = candidateScores;
+        int[] placementHeights = heights[0];
+        int count = 0;
+        for (TetrisPiece rotation : ring) {
+            int positions = root.placementHeights(rotation, placementHeights);
+            for (int x = 0; x < positions; x++) {
+                int y = placementHeights[x];
+                if (y + rotation.getHeight() > root.getHeight()) continue;
+                root.pushCheckpoint();
+                double score = Double.POSITIVE_INFINITY;
+                if (root.placePiece(rotation, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+                    score = evaluator.evaluateBoard(root, root.clearRows());
+                }
+                root.popCheckpoint();
+                if (score == Double.POSITIVE_INFINITY) continue;
+                if (count == candidates && score >= scores[count - 1]) continue; //no better than the worst kept
+
+                //insert in order, dropping the worst once the list is full
+                int i = count < candidates ? count++ : candidates - 1;
+                for (; i > 0 && score < scores[i - 1]; i--) {
+                    scores[i] = scores[i - 1];
+                    candidatePieces[i] = candidatePieces[i - 1];
+                    candidateX[i] = candidateX[i - 1];
+                    candidateY[i] = candidateY[i - 1];
+                }
+                scores[i] = score;
+                candidatePieces[i] = rotation;
+                candidateX[i] = x;
+                candidateY[i] = y;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Plays one rollout of a candidate: place it, then place the rollout's pieces one by one
+     * where the evaluator likes them best, until they run out or the game is lost.
+     *
+     * @param c index of the candidate
+     * @param rollout index of the rollout, which picks its pieces
+     * @param task index of the task playing it, which picks the board
+     * @return the score of the board the rollout ends on, bigger is worse
+     */
+    private double rollout(int c, int rollout, int task) {
+        TetrisBoard board = boards[task];
+        int[] placementHeights = heights[task];
+        board.copyFrom(root);
+        board.placePiece(candidatePieces[c], candidateX[c], candidateY[c]);
+        int cleared = board.clearRows();
+        board.commit();
+        int limit = board.getHeight() - TetrisModel.BUFFERZONE;
+        for (int i = 0; i < rolloutDepth && board.getMaxHeight() <= limit; i++) {
+            TetrisPiece bestPiece = null;
+            int bestX = 0, bestY = 0;
+            double bestScore = Double.POSITIVE_INFINITY;
+            for (TetrisPiece rotation : rotations[ids[rollout * rolloutDepth + i]]) {
+                int positions = board.placementHeights(rotation, placementHeights);
+                for (int x = 0; x < positions; x++) {
+                    int y = placementHeights[x];
+                    if (y + rotation.getHeight() > board.getHeight()) continue;
+                    board.pushCheckpoint();
+                    if (board.placePiece(rotation, x, y) <= TetrisBoard.ADD_ROW_FILLED) {
+                        double score = evaluator.evaluateBoard(board, cleared + board.clearRows());
+                        if (score < bestScore) {
+                            bestScore = score;
+                            bestPiece = rotation;
+                            bestX = x;
+                            bestY = y;
+                        }
+                    }
+                    board.popCheckpoint();
+                }
+            }
+            if (bestPiece == null) break; //nothing fits, the game is lost
+            board.placePiece(bestPiece, bestX, bestY);
+            cleared += board.clearRows();
+            board.commit();
+        }
+        return evaluator.evaluateBoard(board, cleared);
+    }
+
+    /**
+     * Runs a round of rollouts for a range of tasks, splitting the range in half until one task is left.
+     * Task t plays rollouts of candidate t / chunks, the (t % chunks)th ROUND of them in the round.
+     */
+    private class RolloutTask extends RecursiveAction {
+        private final int from, to; //tasks
+        private final int first, count; //rollouts of the round
+
+        RolloutTask(int from, int to, int first, int count) {
+            this.from = from;
+            this.to = to;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RolloutTask(from, mid, first, count), new RolloutTask(mid, to, first, count));
+                return;
+            }
+            int start = first + from % chunks * ROUND, end = Math.min(start + ROUND, first + count);
+            double total = 0;
+            for (int r = start; r < end; r++) total += rollout(from / chunks, r, from);
+            partials[from] = total;
+        }
+    }
+}
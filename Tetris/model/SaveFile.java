@@ -0,0 +1,307 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary save format for a TetrisModel.
+ *
+ * A save file holds, in big-endian order:
+ * <pre>
+ *   int    magic "TTRS"
+ *   short  format version
+ *   short  board width, short board height
+ *   byte   flags (game on, autopilot)
+ *   int    score, int count
+ *   byte   current piece id (-1 if none), byte rotation, short x, short y
+ *   byte   piece source kind, then its state (seed and pieces drawn, or the whole sequence)
+ *   bytes  the committed grid, row by row, each row packed into (width + 7) / 8 bytes
+ *   int    CRC32 of everything before it
+ * </pre>
+ * Pieces are stored as ids into TetrisPiece.getPieces() rather than as objects, and the falling
+ * piece is stored separately from the grid, so files do not depend on the layout of the model classes.
+ */
+public class SaveFile {
+
+    public static final String EXTENSION = ".tet"; //extension of save files
+    public static final int MAGIC = 0x54545253; //"TTRS"
+    public static final short VERSION = 1;
+
+    //kinds of piece source
+    private static final byte SOURCE_NONE = 0; //unknown source, a fresh one is made on load
+    private static final byte SOURCE_UNIFORM = 1;
+    private static final byte SOURCE_BAG = 2;
+    private static final byte SOURCE_SEQUENCE = 3;
+
+    private static final int FLAG_GAME_ON = 1;
+    private static final int FLAG_AUTOPILOT = 2;
+
+    private SaveFile() {}
+
+    /**
+     * Save a model to a file, replacing the file if it exists.
+     *
+     * @param model model to save
+     * @param path file to write to
+     */
+    public static void write(TetrisModel model, Path path) throws IOException {
+        ByteBuffer buffer = encode(model);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Load a model from a file.
+     *
+     * @param path file to read
+     * @return the saved model
+     */
+    public static TetrisModel read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Not a save file: " + path);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Unexpected end of file: " + path);
+            }
+            buffer.flip();
+            return decode(buffer);
+        }
+    }
+
+    /**
+     * Load a model from a .ser file written with Java serialization by older versions of the game.
+     *
+     * @param path file to read
+     * @return the saved model
+     */
+    public static TetrisModel importSerialized(Path path) throws IOException {
+        return LegacySave.read(path);
+    }
+
+    /**
+     * Converter: rewrites each .ser file named on the command line in the save format,
+     * next to the original.
+     *
+     * @param args .ser files to convert
+     */
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            Path ser = Path.of(arg);
+            String name = ser.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            Path out = ser.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + EXTENSION);
+            write(importSerialized(ser), out);
+            System.out.println(ser + " -> " + out);
+        }
+    }
+
+    /**
+     * Encode a model in the save format.
+     *
+     * @param model model to encode
+     * @return a buffer holding the encoded model, ready to be read
+     * @throws IllegalArgumentException if the model is not played with the standard pieces, which are the only ones saved games refer to
+     */
+    public static ByteBuffer encode(TetrisModel model) {
+        if (!Arrays.equals(model.pieces, TetrisPiece.getPieces())) {
+            throw new IllegalArgumentException("Only games played with the standard pieces can be saved");
+        }
+        TetrisBoard board = model.board;
+        int width = board.getWidth(), height = board.getHeight();
+        int rowBytes = (width + 7) / 8;
+        PieceSource source = model.pieceSource;
+        int sourceBytes = (source instanceof SequencePieceSource)
+                ? 8 + 4 * ((SequencePieceSource) source).length() : 16;
+        ByteBuffer buffer = ByteBuffer.allocate(64 + sourceBytes + rowBytes * height);
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) width);
+        buffer.putShort((short) height);
+        buffer.put((byte) ((model.gameOn ? FLAG_GAME_ON : 0) | (model.getAutoPilotMode() ? FLAG_AUTOPILOT : 0)));
+        buffer.putInt(model.score);
+        buffer.putInt(model.count);
+
+        //the falling piece is on the grid but not committed, so it is stored on its own. Once the game
+        //is over the last piece has landed, and rows may have been cleared under it, so it is part of the grid
+        long[] rows = new long[height];
+        for (int y = 0; y < height; y++) rows[y] = board.getRowMask(y);
+        TetrisPiece current = model.gameOn && !board.committed ? model.currentPiece : null;
+        int[] idAndRotation = current == null ? null : findPiece(model.pieces, current);
+        if (idAndRotation == null) {
+            buffer.put((byte) -1).put((byte) 0).putShort((short) 0).putShort((short) 0);
+        } else {
+            buffer.put((byte) idAndRotation[0]).put((byte) idAndRotation[1]);
+            buffer.putShort((short) model.currentX).putShort((short) model.currentY);
+            long[] masks = current.getRowMasks(); //pieces from getPieces() always have masks
+            for (int i = 0; i < masks.length; i++) {
+                rows[model.currentY + i] &= ~(masks[i] << model.currentX);
+            }
+        }
+
+        writeSource(buffer, source);
+
+        for (int y = 0; y < height; y++) {
+            long row = rows[y];
+            for (int i = 0; i < rowBytes; i++) {
+                buffer.put((byte) (row >>> (8 * i)));
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a model from the save format.
+     *
+     * @param buffer buffer positioned at the start of an encoded model
+     * @return the decoded model
+     */
+    public static TetrisModel decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < 4 + 2 + 4) throw new IOException("Not a save file: too short");
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a save file: bad magic number");
+        short version = buffer.getShort();
+        if (version != VERSION) throw new IOException("Unsupported save file version " + version);
+
+        //check the checksum before trusting any of the contents
+        int end = buffer.limit() - 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = buffer.duplicate();
+        covered.position(start).limit(end);
+        crc.update(covered);
+        if ((int) crc.getValue() != buffer.getInt(end)) throw new IOException("Save file is corrupt: bad checksum");
+
+        try {
+            TetrisModel model = new TetrisModel();
+            TetrisBoard board = model.board;
+            int width = buffer.getShort(), height = buffer.getShort();
+            if (width != board.getWidth() || height != board.getHeight()) {
+                throw new IOException("Saved board is " + width + "x" + height + ", expected "
+                        + board.getWidth() + "x" + board.getHeight());
+            }
+            int flags = buffer.get();
+            int score = buffer.getInt();
+            int count = buffer.getInt();
+            int pieceId = buffer.get(), rotation = buffer.get();
+            int x = buffer.getShort(), y = buffer.getShort();
+            PieceSource source = readSource(buffer, model.pieces.length, count);
+
+            int rowBytes = (width + 7) / 8;
+            long[] rows = new long[height];
+            for (int row = 0; row < height; row++) {
+                for (int i = 0; i < rowBytes; i++) {
+                    rows[row] |= (buffer.get() & 0xFFL) << (8 * i);
+                }
+            }
+            board.loadRows(rows);
+
+            model.pieceSource = source;
+            model.score = score;
+            model.count = count;
+            model.gameOn = (flags & FLAG_GAME_ON) != 0;
+            if ((flags & FLAG_AUTOPILOT) != 0) model.setAutoPilotMode();
+            if (pieceId >= 0) {
+                TetrisPiece piece = model.pieces[pieceId];
+                for (int i = 0; i < rotation; i++) piece = piece.fastRotation();
+                if (model.setCurrent(piece, x, y) > TetrisBoard.ADD_ROW_FILLED) {
+                    throw new IOException("Save file is corrupt: the falling piece does not fit");
+                }
+            }
+            model.publish();
+            return model;
+        } catch (RuntimeException e) { //bad ids, sizes or positions in a file that passed the checksum
+            throw new IOException("Save file is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Find which piece, and which rotation of it, a piece is.
+     *
+     * @param pieces the first rotation of every piece
+     * @param piece piece to look for
+     * @return {id, rotation}, or null if the piece is not one of them
+     */
+    static int[] findPiece(TetrisPiece[] pieces, TetrisPiece piece) {
+        for (int id = 0; id < pieces.length; id++) {
+            TetrisPiece rotation = pieces[id];
+            int index = 0;
+            do {
+                if (rotation.equals(piece)) return new int[]{id, index};
+                rotation = rotation.fastRotation();
+                index++;
+            } while (rotation != null && rotation != pieces[id]);
+        }
+        return null;
+    }
+
+    /**
+     * Write the kind and state of a piece source.
+     */
+    private static void writeSource(ByteBuffer buffer, PieceSource source) {
+        if (source instanceof UniformPieceSource) {
+            UniformPieceSource uniform = (UniformPieceSource) source;
+            buffer.put(SOURCE_UNIFORM).putLong(uniform.getSeed()).putLong(uniform.getDrawn());
+        } else if (source instanceof BagPieceSource) {
+            BagPieceSource bag = (BagPieceSource) source;
+            buffer.put(SOURCE_BAG).putLong(bag.getSeed()).putLong(bag.getDrawn());
+        } else if (source instanceof SequencePieceSource) {
+            SequencePieceSource sequence = (SequencePieceSource) source;
+            int[] ids = sequence.getSequence();
+            buffer.put(SOURCE_SEQUENCE).putInt(ids.length).putInt(sequence.getPosition());
+            for (int id : ids) buffer.putInt(id);
+        } else {
+            buffer.put(SOURCE_NONE);
+        }
+    }
+
+    /**
+     * Read a piece source and bring it back to the state it was saved in. Bringing it back replays
+     * the pieces drawn, so a game can only have drawn the pieces it played, plus the falling one.
+     *
+     * @param count pieces played in the saved game
+     */
+    private static PieceSource readSource(ByteBuffer buffer, int pieceCount, int count) throws IOException {
+        byte kind = buffer.get();
+        switch (kind) {
+            case SOURCE_UNIFORM:
+            case SOURCE_BAG: {
+                long seed = buffer.getLong(), drawn = buffer.getLong();
+                if (count < 0 || drawn < 0 || drawn > count + 1L) {
+                    throw new IOException("Save file is corrupt: " + drawn + " pieces drawn in a game of " + count);
+                }
+                PieceSource source = (kind == SOURCE_UNIFORM)
+                        ? new UniformPieceSource(seed, pieceCount) : new BagPieceSource(seed, pieceCount);
+                for (long i = 0; i < drawn; i++) source.nextPieceId(); //replay the generator to where it was
+                return source;
+            }
+            case SOURCE_SEQUENCE: {
+                int length = buffer.getInt(), position = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() / 4 || position < 0 || position >= length) {
+                    throw new IOException("Save file is corrupt: position " + position + " in a sequence of " + length);
+                }
+                int[] ids = new int[length];
+                for (int i = 0; i < length; i++) ids[i] = buffer.getInt();
+                SequencePieceSource source = new SequencePieceSource(ids);
+                for (int i = 0; i < position; i++) source.nextPieceId();
+                return source;
+            }
+            case SOURCE_NONE:
+                return new UniformPieceSource(System.nanoTime(), pieceCount);
+            default:
+                throw new IOException("Save file is corrupt: unknown piece source " + kind);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ForkJoinPools the searching pilots run on, one per parallelism, shared by every pilot.
+ * The registry and the simulations make a new pilot for every game, so pilots must not own
+ * their threads; a shared pool's workers stop by themselves once no pilot has used it for a while.
+ */
+final class SearchPools {
+
+    private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private SearchPools() {}
+
+    /**
+     * Returns the pool with the given number of worker threads, making it the first time it is asked for
+     *
+     * @param parallelism number of worker threads
+     * @return a pool shared with every other pilot asking for the same parallelism
+     */
+    static ForkJoinPool get(int parallelism) {
+        return POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+}
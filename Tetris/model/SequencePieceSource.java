@@ -0,0 +1,51 @@
+package model;
+
+/**
+ * A piece source that plays a precomputed sequence of pieces, for replays and for simulations
+ * that generate their pieces in bulk. After the last piece the sequence starts over.
+ */
+public class SequencePieceSource implements PieceSource {
+
+    private final int[] ids; //the sequence
+    private int next; //position of the next piece
+
+    /**
+     * Constructor. The array is copied.
+     *
+     * @param ids piece ids to play, in order
+     */
+    public SequencePieceSource(int[] ids) {
+        if (ids.length == 0) throw new IllegalArgumentException("Empty piece sequence");
+        this.ids = ids.clone();
+    }
+
+    @Override
+    public int nextPieceId() {
+        int id = ids[next++];
+        if (next == ids.length) next = 0;
+        return id;
+    }
+
+    /**
+     * Getter for the number of pieces played so far from the current pass over the sequence
+     */
+    public int getPosition() {
+        return next;
+    }
+
+    /**
+     * Getter for the sequence
+     *
+     * @return a copy of the piece ids, in play order
+     */
+    public int[] getSequence() {
+        return ids.clone();
+    }
+
+    /**
+     * Getter for the length of the sequence
+     */
+    public int length() {
+        return ids.length;
+    }
+}
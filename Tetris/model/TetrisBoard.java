@@ -14,7 +14,8 @@ import java.util.*;
 public class TetrisBoard implements Serializable{
     private int width; //board height and width
     private int height;
-    protected boolean[][] tetrisGrid; //board grid
+    protected long[] tetrisGrid; //board grid, one bitmask per row (bit x is set when column x is filled)
+    private long fullRow; //mask of a completely filled row
     boolean committed; //indicates if the board is in a 'committed' state, meaning can't undo!
 
     //In your implementation, you'll want to keep counts of filled grid positions in each column.
@@ -24,11 +25,38 @@ public class TetrisBoard implements Serializable{
     //A completely filled row can be cleared from the board (and points are awarded)!
     private int rowCounts[];
 
-    //In addition, you'll need to allocate some space to back up your grid data.
-    //This will be important when you implement "undo".
-    private boolean[][] backupGrid; //to back up your grid
-    private int backupColCounts[]; //to back up your row counts
-    private int backupRowCounts[]; //to back up your column counts
+    //Undo journal: the old value of every row and column changed since the last placePiece(),
+    //or since the oldest open checkpoint when search code has pushed any.
+    //A placement only touches a few rows, so undo costs as much as the piece, not the board.
+    private int[] journalRows; //rows saved in the journal
+    private long[] journalMasks; //their grid masks before the change
+    private int[] journalRowCounts; //their row counts before the change
+    private int journalRowSize;
+    private int[] journalCols; //columns saved in the journal
+    private int[] journalColCounts; //their heights before the change
+    private int journalColSize;
+    private int[] rowStamps; //journal epoch each row was last saved in, so a row is saved at most once
+    private int[] colStamps; //same for columns
+    private int epoch; //current journal epoch
+    private int undoRowBase, undoColBase; //where the entries that undo() reverts begin
+
+    //Checkpoint stack, for search code that wants to explore several moves deep on one board
+    private int[] checkpointRows; //journal row size when each checkpoint was pushed
+    private int[] checkpointCols; //journal column size when each checkpoint was pushed
+    private int checkpointDepth; //number of open checkpoints
+
+    private long rowsCleared; //rows removed by clearRows() over the life of the board; undo does not take them back
+
+    //Zobrist-style hash of the grid: the XOR over all rows of a key for (row, row contents).
+    //A row can hold 2^width contents, too many to tabulate, so each key is computed by a splitmix64 mix.
+    //It is updated in step with the grid, so a change costs as much as the rows it touches.
+    private long hash;
+
+    //checkpoints available to a board built with the default constructor
+    public static final int DEFAULT_CHECKPOINTS = 8;
+
+    //widest board a row mask can hold
+    public static final int MAX_WIDTH = Long.SIZE;
 
     //error types (to be returned by the place function)
     public static final int ADD_OK = 0;
@@ -43,30 +71,105 @@ public class TetrisBoard implements Serializable{
      * @param aHeight    height
      */
     public TetrisBoard(int aWidth, int aHeight) {
+        this(aWidth, aHeight, DEFAULT_CHECKPOINTS);
+    }
+
+    /**
+     * Constructor for an empty board that supports up to maxCheckpoints nested calls to pushCheckpoint().
+     *
+     * @param aWidth    width
+     * @param aHeight    height
+     * @param maxCheckpoints    deepest checkpoint stack search code may build
+     */
+    public TetrisBoard(int aWidth, int aHeight, int maxCheckpoints) {
+        if (aWidth < 1 || aWidth > MAX_WIDTH || aHeight < 1) {
+            throw new IllegalArgumentException("Bad board size: " + aWidth + "x" + aHeight);
+        }
+        if (maxCheckpoints < 0) {
+            throw new IllegalArgumentException("Bad checkpoint depth: " + maxCheckpoints);
+        }
         width = aWidth;
         height = aHeight;
-        tetrisGrid = new boolean[width][height];
+        tetrisGrid = new long[height];
+        fullRow = (width == MAX_WIDTH) ? -1L : (1L << width) - 1;
 
         colCounts = new int[width];
         rowCounts = new int[height];
 
-        //init backup storage, for undo
-        backupGrid = new boolean[width][height];
-        backupColCounts = new int[width];
-        backupRowCounts = new int[height];
+        //init journal storage, for undo; each row and column is saved at most once per placement,
+        //so one board's worth per checkpoint level is enough for a placement and a clear at every level
+        journalRows = new int[height * (maxCheckpoints + 1)];
+        journalMasks = new long[journalRows.length];
+        journalRowCounts = new int[journalRows.length];
+        journalCols = new int[width * (maxCheckpoints + 1)];
+        journalColCounts = new int[journalCols.length];
+        rowStamps = new int[height];
+        colStamps = new int[width];
+
+        checkpointRows = new int[maxCheckpoints];
+        checkpointCols = new int[maxCheckpoints];
+    }
+
+    /**
+     * Copy constructor. The new board has the same grid and the same pending undo() as the other board,
+     * but no checkpoints.
+     *
+     * @param other board to copy
+     */
+    public TetrisBoard(TetrisBoard other) {
+        this(other.width, other.height, other.checkpointRows.length);
+        copyFrom(other);
+    }
+
+    /**
+     * Makes this board a copy of another board of the same size, reusing this board's storage.
+     * The copy has the same grid and the same pending undo() as the other board, but no checkpoints,
+     * so search code can take the falling piece off a copy without touching the original.
+     *
+     * @param other board to copy
+     */
+    public void copyFrom(TetrisBoard other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Cannot copy a " + other.width + "x" + other.height
+                    + " board into a " + width + "x" + height + " board");
+        }
+        System.arraycopy(other.tetrisGrid, 0, tetrisGrid, 0, height);
+        hash = other.hash;
+        System.arraycopy(other.rowCounts, 0, rowCounts, 0, height);
+        System.arraycopy(other.colCounts, 0, colCounts, 0, width);
+        committed = other.committed;
+        checkpointDepth = 0;
+        truncateJournal(0, 0);
+        if (committed) return;
+
+        //bring over only the entries that other.undo() would revert
+        for (int i = other.undoRowBase; i < other.journalRowSize; i++) {
+            int y = other.journalRows[i];
+            rowStamps[y] = epoch;
+            journalRows[journalRowSize] = y;
+            journalMasks[journalRowSize] = other.journalMasks[i];
+            journalRowCounts[journalRowSize] = other.journalRowCounts[i];
+            journalRowSize++;
+        }
+        for (int i = other.undoColBase; i < other.journalColSize; i++) {
+            int x = other.journalCols[i];
+            colStamps[x] = epoch;
+            journalCols[journalColSize] = x;
+            journalColCounts[journalColSize] = other.journalColCounts[i];
+            journalColSize++;
+        }
     }
 
     /**
      * Helper to fill new game grid with empty values
      */
     public void newGame() {
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                tetrisGrid[x][y] = false;
-                }
-            }
+        Arrays.fill(tetrisGrid, 0L);
+        hash = 0L;
         Arrays.fill(colCounts, 0);
         Arrays.fill(rowCounts, 0);
+        checkpointDepth = 0;
+        truncateJournal(0, 0);
         committed = true;
     }
 
@@ -91,7 +194,11 @@ public class TetrisBoard implements Serializable{
      * @return the y position of the last filled square in the tallest column
      */
     public int getMaxHeight() {
-        return Arrays.stream(colCounts).max().getAsInt();
+        int max = 0;
+        for (int h : colCounts) {
+            if (h > max) max = h;
+        }
+        return max;
     }
 
     /**
@@ -117,6 +224,107 @@ public class TetrisBoard implements Serializable{
         return rowCounts[y];
     }
 
+    /**
+     * Returns how many rows clearRows() has removed from this board since it was made.
+     * The count only goes up, even when a clear is undone, so a view can compare it
+     * between frames to tell whether rows were cleared in between.
+     *
+     * @return rows cleared so far
+     */
+    public long getRowsCleared() {
+        return rowsCleared;
+    }
+
+    /**
+     * Returns a 64-bit hash of the grid, kept up to date by every change to the board, so it costs nothing to read.
+     * Boards of the same size with the same blocks filled have the same hash, however they got there.
+     * An empty board hashes to 0.
+     *
+     * @return hash of the grid
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the filled blocks of the given row as a bitmask, where bit x
+     * is set if column x is filled. The caller should not rely on bits at or above the board width.
+     *
+     * @param y grid row, y
+     *
+     * @return bitmask of the filled blocks in row y
+     */
+    public long getRowMask(int y) {
+        return tetrisGrid[y];
+    }
+
+    /**
+     * Measures the features evaluators score a board on in one pass down the row masks, counting
+     * blocks a row at a time with Long.bitCount instead of visiting them one by one. Only the wells,
+     * whose depths have to be followed column by column, take a second, short pass over the open blocks.
+     * Nothing is allocated, so this can run in the inner loop of a search.
+     *
+     * @param features array of at least BoardFeatures.COUNT ints, filled in at the BoardFeatures indices
+     * @return the array passed in
+     */
+    public int[] getFeatures(int[] features) {
+        //heights come from the column counts, which placePiece() and clearRows() keep up to date
+        int maxHeight = 0, aggregateHeight = 0, bumpiness = 0;
+        int previous = colCounts[0];
+        for (int x = 0; x < width; x++) {
+            int h = colCounts[x];
+            aggregateHeight += h;
+            maxHeight = Math.max(maxHeight, h);
+            bumpiness += Math.abs(h - previous);
+            previous = h;
+        }
+
+        long full = fullRow;
+        long leftWall = 1L, rightWall = 1L << (width - 1);
+        int holes = 0, rowsWithHoles = 0, rowTransitions = 0, columnTransitions = 0, wells = 0;
+        long covered = 0; //columns with a filled block above the current row
+        long above = 0; //the row above the current one; the first one above the top is empty
+        //walk down from the top, so covered is known at each row
+        for (int y = maxHeight - 1; y >= 0; y--) {
+            long row = tetrisGrid[y];
+            long empty = ~row & full;
+            long rowHoles = empty & covered;
+            holes += Long.bitCount(rowHoles);
+            rowsWithHoles += (int) ((rowHoles | -rowHoles) >>> 63); //1 if any bit is set
+            //changes between neighbouring blocks, then against the left and right walls
+            rowTransitions += Long.bitCount((row ^ (row >>> 1)) & (full >>> 1))
+                    + (int) (empty & leftWall) + (int) ((empty & rightWall) >>> (width - 1));
+            columnTransitions += Long.bitCount(row ^ above);
+            covered |= row;
+            above = row;
+        }
+        columnTransitions += Long.bitCount(~above & full); //against the floor
+
+        //wells: each run of open blocks with both neighbours filled (or a wall) counts 1 + 2 + ... + its depth.
+        //Only the open part of each column, from its top up to the tallest column, can hold one
+        for (int x = 0; x < width; x++) {
+            long neighbours = (x == 0 ? 0 : 1L << (x - 1)) | (x == width - 1 ? 0 : 1L << (x + 1));
+            int depth = 0;
+            for (int y = maxHeight - 1; y >= colCounts[x]; y--) {
+                if ((tetrisGrid[y] & neighbours) == neighbours) {
+                    wells += ++depth;
+                } else {
+                    depth = 0;
+                }
+            }
+        }
+
+        features[BoardFeatures.AGGREGATE_HEIGHT] = aggregateHeight;
+        features[BoardFeatures.MAX_HEIGHT] = maxHeight;
+        features[BoardFeatures.BUMPINESS] = bumpiness;
+        features[BoardFeatures.HOLES] = holes;
+        features[BoardFeatures.ROWS_WITH_HOLES] = rowsWithHoles;
+        features[BoardFeatures.ROW_TRANSITIONS] = rowTransitions;
+        features[BoardFeatures.COLUMN_TRANSITIONS] = columnTransitions;
+        features[BoardFeatures.WELLS] = wells;
+        return features;
+    }
+
     /**
      * Returns true if the given block is filled in the board. Blocks outside of the
      * valid width/height area always return true (as we can't place anything there).
@@ -127,9 +335,8 @@ public class TetrisBoard implements Serializable{
      * @return true if the given block at x,y is filled, else false
      */
     public boolean getGrid(int x, int y) {
-        if (x >= width || x < 0 || y >= height || y < 0 || tetrisGrid[x][y])
-            return true;
-        return false;
+        if (x >= width || x < 0 || y >= height || y < 0) return true;
+        return (tetrisGrid[y] & (1L << x)) != 0;
     }
 
     /**
@@ -144,12 +351,63 @@ public class TetrisBoard implements Serializable{
      * @return the y value where the piece will come to rest
      */
     public int placementHeight(TetrisPiece piece, int x) {
-        ArrayList<Integer> result = new ArrayList<>();
-        for (int i = 0; i < piece.getLowestYVals().length; i++) {
-            int y1 = piece.getLowestYVals()[i], y2 = this.getColumnHeight(x + i);
-            result.add(y2 + (piece.getHeight() - y1));
+        int[] lowestYVals = piece.getLowestYVals();
+        int result = colCounts[x] - lowestYVals[0];
+        for (int i = 1; i < lowestYVals.length; i++) {
+            int y = colCounts[x + i] - lowestYVals[i];
+            if (y > result) result = y;
         }
-        return Collections.max(result) - piece.getHeight();
+        return result;
+    }
+
+    /**
+     * Given a piece, computes the placementHeight() of that piece for every x where it fits
+     * within the board, in one pass and without allocating.
+     * heights[x] receives the y value where the piece will come to rest if dropped at x.
+     *
+     * @param piece piece to place
+     * @param heights array of at least getWidth() entries to fill
+     *
+     * @return the number of x values filled in, i.e. getWidth() - piece.getWidth() + 1
+     */
+    public int placementHeights(TetrisPiece piece, int[] heights) {
+        int[] lowestYVals = piece.getLowestYVals();
+        int[] cols = colCounts;
+        int positions = width - lowestYVals.length + 1;
+        for (int x = 0; x < positions; x++) {
+            int result = cols[x] - lowestYVals[0];
+            for (int i = 1; i < lowestYVals.length; i++) {
+                int y = cols[x + i] - lowestYVals[i];
+                if (y > result) result = y;
+            }
+            heights[x] = result;
+        }
+        return Math.max(positions, 0);
+    }
+
+    /**
+     * Checks whether a piece would fit at a position, i.e. whether placePiece() would succeed there,
+     * without changing the board. Search code can test positions this way without any undo.
+     *
+     * @param piece piece to place
+     * @param x placement position, x
+     * @param y placement position, y
+     *
+     * @return true if every block of the piece is inside the board and over an empty block
+     */
+    public boolean canPlace(TetrisPiece piece, int x, int y) {
+        long[] masks = piece.getRowMasks();
+        if (masks == null) {
+            for (TetrisPoint point : piece.getBody()) {
+                if (getGrid(x + point.x, y + point.y)) return false;
+            }
+            return true;
+        }
+        if (x < 0 || y < 0 || x + piece.getColumnTops().length > width || y + masks.length > height) return false;
+        for (int i = 0; i < masks.length; i++) {
+            if ((this.tetrisGrid[y + i] & (masks[i] << x)) != 0) return false;
+        }
+        return true;
     }
 
     /**
@@ -173,17 +431,57 @@ public class TetrisBoard implements Serializable{
      */
     public int placePiece(TetrisPiece piece, int x, int y) {
         this.committed = false;
-        this.backupGrid();
+        //without checkpoints, nothing before this placement can be reverted any more
+        if (this.checkpointDepth == 0) this.truncateJournal(0, 0);
+        else this.truncateJournal(this.journalRowSize, this.journalColSize);
+        this.undoRowBase = this.journalRowSize;
+        this.undoColBase = this.journalColSize;
+        long[] masks = piece.getRowMasks();
+        if (masks == null) return placeBody(piece, x, y);
+        int[] tops = piece.getColumnTops();
+        if (x < 0 || y < 0 || x + tops.length > width || y + masks.length > height) return ADD_OUT_BOUNDS;
+        //check every row before writing any, so a bad placement leaves the board as it was
+        for (int i = 0; i < masks.length; i++) {
+            if ((this.tetrisGrid[y + i] & (masks[i] << x)) != 0) return ADD_BAD;
+        }
+        boolean result = false;
+        for (int i = 0; i < masks.length; i++) {
+            if (masks[i] == 0) continue;
+            this.journalRow(y + i);
+            this.setRow(y + i, this.tetrisGrid[y + i] | masks[i] << x);
+            this.rowCounts[y + i] += Long.bitCount(masks[i]);
+            if (this.tetrisGrid[y + i] == this.fullRow) result = true;
+        }
+        for (int i = 0; i < tops.length; i++) {
+            if (tops[i] >= 0 && y + tops[i] >= this.colCounts[x + i]) {
+                this.journalCol(x + i);
+                this.colCounts[x + i] = y + tops[i] + 1;
+            }
+        }
+        if (result) return ADD_ROW_FILLED;
+        return ADD_OK;
+    }
+
+    /**
+     * placePiece() for a piece whose body has negative coordinates, and so has no row masks:
+     * places it one block at a time.
+     */
+    private int placeBody(TetrisPiece piece, int x, int y) {
         boolean result = false;
         for (int i = 0; i < piece.getBody().length; i++) {
             int x1 = piece.getBody()[i].x, y1 = piece.getBody()[i].y;
             if (x + x1 >= width || y + y1 >= height || x + x1 < 0 || y + y1 < 0) return ADD_OUT_BOUNDS;
-            else if (getGrid(x + x1, y + y1)) return ADD_BAD;
-            this.tetrisGrid[x + x1][y + y1] = true;
-            if (y + y1 >= this.colCounts[x + x1]) this.colCounts[x + x1] = y + y1 + 1;
+            long bit = 1L << (x + x1);
+            if ((this.tetrisGrid[y + y1] & bit) != 0) return ADD_BAD;
+            this.journalRow(y + y1);
+            this.setRow(y + y1, this.tetrisGrid[y + y1] | bit);
+            if (y + y1 >= this.colCounts[x + x1]) {
+                this.journalCol(x + x1);
+                this.colCounts[x + x1] = y + y1 + 1;
+            }
             this.rowCounts[y + y1]++;
 
-            if (this.getRowWidth(y + y1) == this.width) result = true;
+            if (this.tetrisGrid[y + y1] == this.fullRow) result = true;
         }
         if (result) return ADD_ROW_FILLED;
         return ADD_OK;
@@ -196,68 +494,221 @@ public class TetrisBoard implements Serializable{
      * @return number of rows cleared (useful for scoring)
      */
     public int clearRows() {
-        int count = 0; ArrayList<Integer> old = new ArrayList<>();
-        boolean[][] result = new boolean[this.tetrisGrid.length][this.tetrisGrid[0].length];
-        for (int i = 0; i < this.rowCounts.length; i++) {
-            if (this.rowCounts[i] == this.width) {
+        int top = this.getMaxHeight(); //nothing above the tallest column can move
+        int count = 0;
+        //compact the grid in place, shifting every row that is not full down over the cleared ones
+        for (int y = 0; y < top; y++) {
+            if (this.tetrisGrid[y] == this.fullRow) {
                 count++;
-                old.add(i);
+            } else if (count > 0) {
+                if (this.isJournaling()) this.journalRow(y - count);
+                this.setRow(y - count, this.tetrisGrid[y]);
+                this.rowCounts[y - count] = this.rowCounts[y];
             }
         }
-        int count1 = 0;
-        for (int i = 0; i < this.tetrisGrid.length; i++) {
-            for (int j = 0; j < this.tetrisGrid[i].length; j++) {
-                if (!old.contains(j)) {
-                    result[i][count1] = this.tetrisGrid[i][j];
-                    count1++;
-                }
-            }
-            count1 = 0;
+        if (count == 0) return 0;
+        this.rowsCleared += count;
+        for (int y = top - count; y < top; y++) {
+            if (this.isJournaling()) this.journalRow(y);
+            this.setRow(y, 0L);
+            this.rowCounts[y] = 0;
+        }
+        //a full row sits under the top of every column, so each column drops by count;
+        //only a column whose top block was cleared has to look further down for its new top
+        for (int x = 0; x < this.width; x++) {
+            long bit = 1L << x;
+            int h = this.colCounts[x] - count;
+            while (h > 0 && (this.tetrisGrid[h - 1] & bit) == 0) h--;
+            if (this.isJournaling()) this.journalCol(x);
+            this.colCounts[x] = h;
         }
-        this.tetrisGrid = result;
-        this.makeHeightAndWidthArrays();
         return count;
     }
 
     /**
      * Reverts the board to its state before up to one call to placePiece() and one to clearRows();
      * If the conditions for undo() are not met, such as calling undo() twice in a row, then the second undo() does nothing.
+     * undo() never reverts past the most recent pushCheckpoint().
      * See the overview docs.
      */
     public void undo() {
         if (committed == true) return;  //a committed board cannot be undone!
 
-        if (backupGrid == null) throw new RuntimeException("No source for backup!");  //a board with no backup source cannot be undone!
+        revertJournal(undoRowBase, undoColBase);
+
+        committed = true; //no going backwards now!
+    }
 
-        //make a copy!!
-        for (int i = 0; i < backupGrid.length; i++) {
-            System.arraycopy(backupGrid[i], 0, tetrisGrid[i], 0, backupGrid[i].length);
+    /**
+     * Puts the board in the 'committed' state.
+     */
+    public void commit() {
+        committed = true;
+        if (checkpointDepth == 0) truncateJournal(0, 0); //nobody can revert past this point now
+    }
+
+    /**
+     * Saves the current state of the board so that a later popCheckpoint() can restore it,
+     * however many pieces are placed and rows cleared in between. Checkpoints nest, up to
+     * the depth given to the constructor, so a search can explore several moves deep on one board
+     * without copying it. Pushing a checkpoint commits the board.
+     */
+    public void pushCheckpoint() {
+        if (checkpointDepth == checkpointRows.length) {
+            throw new IllegalStateException("Checkpoint stack is full (" + checkpointRows.length + ")");
         }
+        commit();
+        checkpointRows[checkpointDepth] = journalRowSize;
+        checkpointCols[checkpointDepth] = journalColSize;
+        checkpointDepth++;
+        truncateJournal(journalRowSize, journalColSize); //rows must be saved again for this level
+    }
 
-        //copy row and column tallies as well.
-        System.arraycopy(backupRowCounts, 0, rowCounts, 0, backupRowCounts.length);
-        System.arraycopy(backupColCounts, 0, colCounts, 0, backupColCounts.length);
+    /**
+     * Restores the board to its state at the matching pushCheckpoint() and discards that checkpoint.
+     * The board is left in the committed state.
+     */
+    public void popCheckpoint() {
+        if (checkpointDepth == 0) throw new IllegalStateException("No checkpoint to pop");
+        checkpointDepth--;
+        revertJournal(checkpointRows[checkpointDepth], checkpointCols[checkpointDepth]);
+        committed = true;
+        if (checkpointDepth == 0) truncateJournal(0, 0);
+    }
 
-        committed = true; //no going backwards now!
+    /**
+     * Getter for the number of open checkpoints
+     *
+     * @return how many checkpoints have been pushed and not yet popped
+     */
+    public int getCheckpointDepth() {
+        return checkpointDepth;
+    }
+
+    /**
+     * Returns true while changes have to be journaled, i.e. while they could still be undone or popped.
+     */
+    private boolean isJournaling() {
+        return !committed || checkpointDepth > 0;
+    }
+
+    /**
+     * Put back every row and column saved in the journal from the given sizes on, newest first
+     * so that the oldest saved value of a row wins, then drop those entries.
+     *
+     * @param rowSize journal row size to revert to
+     * @param colSize journal column size to revert to
+     */
+    private void revertJournal(int rowSize, int colSize) {
+        for (int i = journalRowSize - 1; i >= rowSize; i--) {
+            int y = journalRows[i];
+            setRow(y, journalMasks[i]);
+            rowCounts[y] = journalRowCounts[i];
+        }
+        for (int i = journalColSize - 1; i >= colSize; i--) {
+            colCounts[journalCols[i]] = journalColCounts[i];
+        }
+        truncateJournal(rowSize, colSize);
     }
 
     /**
-     * Copy the backup grid into the grid that defines the board (to support undo)
+     * Cut the undo journal back to the given sizes and start a new epoch, so that rows and columns
+     * changed from here on get saved again.
+     *
+     * @param rowSize journal row size to keep
+     * @param colSize journal column size to keep
      */
-    private void backupGrid() {
-        //make a copy!!
-        for (int i = 0; i < tetrisGrid.length; i++) {
-            System.arraycopy(tetrisGrid[i], 0, backupGrid[i], 0, tetrisGrid[i].length);
+    private void truncateJournal(int rowSize, int colSize) {
+        journalRowSize = rowSize;
+        journalColSize = colSize;
+        if (undoRowBase > rowSize) undoRowBase = rowSize;
+        if (undoColBase > colSize) undoColBase = colSize;
+        if (++epoch == 0) { //stamps wrapped around, forget the old ones
+            Arrays.fill(rowStamps, 0);
+            Arrays.fill(colStamps, 0);
+            epoch = 1;
         }
-        //copy row and column tallies as well.
-        System.arraycopy(rowCounts, 0, backupRowCounts, 0, rowCounts.length);
-        System.arraycopy(colCounts, 0, backupColCounts, 0, colCounts.length);
     }
 
     /**
-     * Puts the board in the 'committed' state.
+     * Set the mask of row y, keeping the hash in step.
+     *
+     * @param y grid row, y
+     * @param mask its new mask
      */
-    public void commit() {
+    private void setRow(int y, long mask) {
+        hash ^= rowKey(y, tetrisGrid[y]) ^ rowKey(y, mask);
+        tetrisGrid[y] = mask;
+    }
+
+    /**
+     * Hash key of row y holding the given mask. An empty row has key 0, so an empty board hashes to 0.
+     *
+     * @param y grid row, y
+     * @param mask row mask
+     * @return the key
+     */
+    private static long rowKey(int y, long mask) {
+        if (mask == 0) return 0L;
+        long z = mask + (y + 1) * 0x9E3779B97F4A7C15L; //splitmix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Save row y in the undo journal, unless it was already saved this epoch.
+     *
+     * @param y grid row, y
+     */
+    private void journalRow(int y) {
+        if (rowStamps[y] == epoch) return;
+        rowStamps[y] = epoch;
+        if (journalRowSize == journalRows.length) { //only when one level piles up many placements
+            journalRows = Arrays.copyOf(journalRows, journalRowSize * 2);
+            journalMasks = Arrays.copyOf(journalMasks, journalRowSize * 2);
+            journalRowCounts = Arrays.copyOf(journalRowCounts, journalRowSize * 2);
+        }
+        journalRows[journalRowSize] = y;
+        journalMasks[journalRowSize] = tetrisGrid[y];
+        journalRowCounts[journalRowSize] = rowCounts[y];
+        journalRowSize++;
+    }
+
+    /**
+     * Save the height of column x in the undo journal, unless it was already saved this epoch.
+     *
+     * @param x grid column, x
+     */
+    private void journalCol(int x) {
+        if (colStamps[x] == epoch) return;
+        colStamps[x] = epoch;
+        if (journalColSize == journalCols.length) {
+            journalCols = Arrays.copyOf(journalCols, journalColSize * 2);
+            journalColCounts = Arrays.copyOf(journalColCounts, journalColSize * 2);
+        }
+        journalCols[journalColSize] = x;
+        journalColCounts[journalColSize] = colCounts[x];
+        journalColSize++;
+    }
+
+    /**
+     * Replaces the whole grid, e.g. when a saved game is loaded, and recomputes the counts.
+     * The board is left committed, with no checkpoints.
+     *
+     * @param rows one mask per row, as returned by getRowMask
+     */
+    void loadRows(long[] rows) {
+        if (rows.length != height) throw new IllegalArgumentException("Expected " + height + " rows, got " + rows.length);
+        for (int y = 0; y < height; y++) {
+            if ((rows[y] & ~fullRow) != 0) throw new IllegalArgumentException("Row " + y + " is wider than the board");
+        }
+        for (int y = 0; y < height; y++) {
+            setRow(y, rows[y]);
+        }
+        makeHeightAndWidthArrays();
+        checkpointDepth = 0;
+        truncateJournal(0, 0);
         committed = true;
     }
 
@@ -269,12 +720,12 @@ public class TetrisBoard implements Serializable{
         Arrays.fill(colCounts, 0);
         Arrays.fill(rowCounts, 0);
 
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                if (tetrisGrid[x][y]) { //means is not an empty cell
-                    colCounts[x] = y + 1; //these tallies can be useful when clearing rows or placing pieces
-                    rowCounts[y]++;
-                }
+        for (int y = 0; y < tetrisGrid.length; y++) {
+            long row = tetrisGrid[y];
+            rowCounts[y] = Long.bitCount(row);
+            while (row != 0) { //walk the filled cells of the row, lowest column first
+                colCounts[Long.numberOfTrailingZeros(row)] = y + 1; //these tallies can be useful when clearing rows or placing pieces
+                row &= row - 1;
             }
         }
     }
@@ -2,6 +2,13 @@ package model;
 
 import java.io.*;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** Represents a Tetris Model for Tetris.  
  * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
@@ -24,10 +31,27 @@ public class TetrisModel implements Serializable {
 
     // State of the game
     protected boolean gameOn;	// true if we are playing
-    protected Random random;	 // the random generator for new pieces
+    protected PieceSource pieceSource;	 // where new pieces come from
 
     private boolean autoPilotMode; //are we in autopilot mode?
     protected TetrisPilot pilot;
+    protected transient ReplayRecorder recorder; //logs the game for replays, if set
+
+    //planning on a background thread: the pilot works out its move for the falling piece between ticks,
+    //and a tick only plays the move if it is ready. See setAsyncPlanning
+    private transient boolean asyncPlanning;
+    private transient ThreadPoolExecutor planner; //runs the pilot; its thread stops when the pilot is idle
+    private transient Future<MoveType> plan; //the pilot's next move, or null if none is being worked out
+    private transient TetrisPiece planPiece; //rotation and x the plan is for; gravity only changes y
+    private transient int planX;
+    private transient long missedPlans;
+    private transient TetrisBoard[] planBoards; //boards the plans work on, reused from plan to plan
+    private final transient ReentrantLock[] planLocks = {new ReentrantLock(), new ReentrantLock()}; //held while a board is in use
+    private transient AutoPilot fallback; //greedy pilot for the moves the pilot failed to plan
+    private transient TetrisPilot failedPilot; //last pilot that failed, so each is only reported once
+
+    //latest snapshot of the game, so other threads can read a consistent board and score without locks
+    private final transient AtomicReference<TetrisSnapshot> snapshot = new AtomicReference<>();
 
     public enum MoveType {
         ROTATE,
@@ -41,11 +65,22 @@ public class TetrisModel implements Serializable {
      * Constructor for a tetris model
      */
     public TetrisModel() {
+        this(PieceRegistry.standard());
+    }
+
+    /**
+     * Constructor for a tetris model played with a custom set of pieces.
+     * Piece sources draw ids from 0 to pieceSet.size() - 1.
+     *
+     * @param pieceSet pieces to play with, e.g. from PieceRegistry.register
+     */
+    public TetrisModel(PieceRegistry pieceSet) {
         board = new TetrisBoard(WIDTH, HEIGHT + BUFFERZONE);
-        pieces = TetrisPiece.getPieces(); //initialize board and pieces
+        pieces = pieceSet.getPieces(); //initialize board and pieces
         autoPilotMode = false;
         gameOn = false;
-        pilot = new AutoPilot();
+        pilot = PilotRegistry.create(PilotRegistry.DEFAULT);
+        publish();
     }
 
 
@@ -53,11 +88,30 @@ public class TetrisModel implements Serializable {
      * Start new game
      */
     public void startGame() { //start game
-        random = new Random();
+        startGame(new UniformPieceSource(new Random().nextLong(), pieces.length));
+    }
+
+    /**
+     * Start new game, drawing pieces from the given source.
+     * A seeded source makes the piece sequence reproducible.
+     *
+     * @param pieceSource source of new pieces
+     */
+    public void startGame(PieceSource pieceSource) {
+        this.pieceSource = pieceSource;
+        if (recorder != null) recorder.recordGame();
         addNewPiece();
         gameOn = true;
         score = 0;
         count = 0;
+        publish();
+    }
+
+    /**
+     * Getter for the source of new pieces
+     */
+    public PieceSource getPieceSource() {
+        return this.pieceSource;
     }
 
     /**
@@ -131,6 +185,9 @@ public class TetrisModel implements Serializable {
 
         if (result > TetrisBoard.ADD_ROW_FILLED) {
             stopGame(); //oops, we lost.
+        } else if (asyncPlanning && autoPilotMode) {
+            cancelPlan(); //whatever was left of the old piece's plan is no use now
+            startPlan(currentY);
         }
 
     }
@@ -140,7 +197,8 @@ public class TetrisModel implements Serializable {
      */
     private TetrisPiece pickNextPiece() {
         int pieceNum;
-        pieceNum = (int) (pieces.length * random.nextDouble());
+        pieceNum = pieceSource.nextPieceId();
+        if (recorder != null) recorder.recordPiece(pieceNum);
         TetrisPiece piece	 = pieces[pieceNum];
         return(piece);
     }
@@ -173,6 +231,7 @@ public class TetrisModel implements Serializable {
      */
     public void stopGame() {
         gameOn = false;
+        cancelPlan();
     }
 
     /**
@@ -223,6 +282,71 @@ public class TetrisModel implements Serializable {
      */
     public void setHumanPilotMode() {
         autoPilotMode = false;
+        cancelPlan();
+    }
+
+    /**
+     * Set the pilot that plays the game in autopilot mode.
+     *
+     * @param pilot pilot to use
+     */
+    public void setPilot(TetrisPilot pilot) {
+        cancelPlan();
+        this.pilot = pilot;
+    }
+
+    /**
+     * Getter for the pilot used in autopilot mode
+     */
+    public TetrisPilot getPilot() {
+        return this.pilot;
+    }
+
+    /**
+     * Plan autopilot moves on a background thread, so that a slow pilot never holds up a tick.
+     * The pilot starts on a piece as soon as addNewPiece picks it, working on a copy of the board,
+     * and each tick plays its move only if it is ready; otherwise the tick is gravity alone.
+     * A plan still running when its piece lands is cancelled. Off by default, since the moves
+     * then depend on how fast the pilot is, and a seeded game no longer plays the same way twice.
+     *
+     * @param asyncPlanning true to plan in the background, false to ask the pilot on every tick
+     */
+    public void setAsyncPlanning(boolean asyncPlanning) {
+        this.asyncPlanning = asyncPlanning;
+        if (!asyncPlanning) cancelPlan();
+    }
+
+    /**
+     * Getter for async planning state
+     */
+    public boolean isAsyncPlanning() {
+        return this.asyncPlanning;
+    }
+
+    /**
+     * Getter for whether the pilot's move for the falling piece is ready, when planning in the background
+     *
+     * @return true if the next tick will play a move from the pilot
+     */
+    public boolean isPlanReady() {
+        return plan != null && plan.isDone() && planMatches();
+    }
+
+    /**
+     * Getter for the number of ticks that were gravity alone, because the pilot's move was not ready
+     */
+    public long getMissedPlans() {
+        return missedPlans;
+    }
+
+    /**
+     * Set the recorder that logs the pieces and moves of every game started from now on,
+     * so they can be replayed with ReplayPlayer.
+     *
+     * @param recorder recorder to log to, or null to stop recording
+     */
+    public void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
     }
 
     /**
@@ -239,6 +363,8 @@ public class TetrisModel implements Serializable {
         if (autoPilotMode && gameOn) { //if it's an automated game, get an automated move.
             computerMove();
         }
+
+        publish();
     }
 
     /**
@@ -246,10 +372,124 @@ public class TetrisModel implements Serializable {
      * Then execute it.
      */
     private void computerMove() {
-        MoveType verb = pilot.bestMove(board,currentPiece,currentX,currentY); //which move is best?
+        if (asyncPlanning) {
+            playPlan();
+            return;
+        }
+        //cancelling a plan only interrupts the pilot, so one may still be running on the planning thread;
+        //wait for it, since pilots keep state between calls and are not safe to call from two threads
+        MoveType verb;
+        for (ReentrantLock lock : planLocks) lock.lock();
+        try {
+            verb = pilot.bestMove(board,currentPiece,currentX,currentY); //which move is best?
+        } finally {
+            for (ReentrantLock lock : planLocks) lock.unlock();
+        }
         executeMove(verb);
     }
 
+    /**
+     * Play the pilot's planned move if it is ready, and start planning the one after.
+     */
+    private void playPlan() {
+        if (currentPiece == null) return;
+        if (plan != null && !plan.isDone()) { //still thinking, let gravity do the work
+            missedPlans++;
+            return;
+        }
+        MoveType verb = null;
+        if (plan != null && planMatches()) {
+            try {
+                verb = plan.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); //let the caller see it
+                return;
+            } catch (ExecutionException e) { //a failing pilot should not end the game, so play a greedy move
+                if (failedPilot != pilot) {
+                    failedPilot = pilot;
+                    System.err.println("Pilot failed, playing greedy moves instead when it does");
+                    e.getCause().printStackTrace();
+                }
+                if (fallback == null) fallback = new AutoPilot();
+                verb = fallback.bestMove(board, currentPiece, currentX, currentY);
+            }
+        }
+        plan = null;
+        if (verb == null) { //nothing planned for where the piece is, e.g. after a key press
+            missedPlans++;
+            startPlan(currentY);
+            return;
+        }
+
+        int before = count;
+        executeMove(verb);
+        if (count != before || !gameOn) return; //the piece landed, and the new one has a plan already
+
+        startPlan(currentY - 1); //plan for where the piece will be at the next move, one row down after gravity
+    }
+
+    /**
+     * Ask the pilot for a move on the planning thread, for the falling piece at height y.
+     * The pilot works on a copy of the board, so the model can move on. The copies are two boards
+     * kept for planning, each locked while in use: plans run one at a time, but a cancelled one
+     * may still be running on one board while the next is set up on the other.
+     *
+     * @param y height the piece will be at; below where it is now to plan for after gravity
+     */
+    private void startPlan(int y) {
+        if (planner == null) {
+            planner = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "Tetris planner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            planner.allowCoreThreadTimeOut(true);
+            planBoards = new TetrisBoard[planLocks.length];
+        }
+        //only the planning thread holds a lock for long, and it holds one at a time
+        int slot = planLocks[0].tryLock() ? 0 : 1;
+        ReentrantLock lock = planLocks[slot];
+        if (slot == 1) lock.lock();
+        TetrisBoard copy = planBoards[slot];
+        try {
+            if (copy == null || copy.getWidth() != board.getWidth() || copy.getHeight() != board.getHeight()) {
+                copy = new TetrisBoard(board.getWidth(), board.getHeight(), 0);
+                planBoards[slot] = copy;
+            }
+            copy.copyFrom(board);
+            if (y != currentY) {
+                copy.undo();
+                if (!copy.canPlace(currentPiece, currentX, y)) return; //it lands, no more moves for it
+                copy.placePiece(currentPiece, currentX, y);
+            }
+        } finally {
+            lock.unlock();
+        }
+        TetrisBoard planBoard = copy;
+        TetrisPilot planPilot = pilot;
+        TetrisPiece piece = currentPiece;
+        int x = currentX;
+        planPiece = piece;
+        planX = x;
+        plan = planner.submit(() -> {
+            lock.lockInterruptibly();
+            try {
+                return planPilot.bestMove(planBoard, piece, x, y);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private boolean planMatches() { //a plan never outlives its piece, so only a move can make it stale
+        return planPiece == currentPiece && planX == currentX;
+    }
+
+    private void cancelPlan() {
+        if (plan != null) plan.cancel(true);
+        plan = null;
+    }
+
     /**
      * Execute a given move.  This will compute the new position of the active piece, 
      * set the piece to this location if possible.  If lines are completed
@@ -261,6 +501,8 @@ public class TetrisModel implements Serializable {
      */
     private void executeMove(MoveType verb) {
 
+        if (recorder != null) recorder.recordMove(verb);
+
         if (currentPiece != null) {
             board.undo();	// remove the piece from its old position
         }
@@ -312,20 +554,45 @@ public class TetrisModel implements Serializable {
     }
 
     /**
-     * Save the current state of the game to a file
+     * Save the current state of the game to a file, in the SaveFile format
      * 
      * @param file pointer to file to write to
      */
     public void saveModel(File file) {
         try {
-            FileOutputStream fout = new FileOutputStream(file);
-            ObjectOutputStream oos = new ObjectOutputStream(fout);
-            oos.writeObject(this);
+            SaveFile.write(this, file.toPath());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Getter for the latest snapshot of the game, taken at the end of the last tick.
+     * Safe to call from any thread, even while the game is being played on another.
+     *
+     * @return immutable copy of the board and score
+     */
+    public TetrisSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Publish a snapshot of the game as it is now. Called by the thread that plays the game,
+     * whenever a change to it is complete.
+     */
+    void publish() {
+        snapshot.set(new TetrisSnapshot(this));
+    }
+
+    /**
+     * Getter for game state
+     *
+     * @return true while the game is being played
+     */
+    public boolean isGameOn() {
+        return this.gameOn;
+    }
+
     /**
      * Getter for autopilot state
      */
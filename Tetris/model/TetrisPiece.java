@@ -21,8 +21,9 @@ public class TetrisPiece implements Serializable {
     private int[] lowestYVals; //The lowestYVals array contains the lowest y value for each x in the body.
     private int width;
     private int height;
+    private long[] rowMasks; //bit x of rowMasks[y] is set when the body has block (x, y); null if the body has negative coordinates
+    private int[] columnTops; //for each x from 0, the highest y in the body at that x, or -1 if there is none
     private TetrisPiece next; // We'll use this to link each piece to its "next" rotation.
-    static private TetrisPiece[] pieces;	// array of rotations for this piece
 
 
     // String constants for the standard 7 tetris pieces
@@ -62,6 +63,22 @@ public class TetrisPiece implements Serializable {
         }
         this.width = x_values.size();
         this.height = Collections.max(y_values1) + 1;
+
+        //the body again as one bitmask per row, so the board can place a row of the piece at a time
+        int minX = 0, maxX = 0, minY = 0, maxY = 0;
+        for (TetrisPoint point : this.body) {
+            minX = Math.min(minX, point.x); maxX = Math.max(maxX, point.x);
+            minY = Math.min(minY, point.y); maxY = Math.max(maxY, point.y);
+        }
+        if (minX >= 0 && minY >= 0 && maxX < Long.SIZE) {
+            this.rowMasks = new long[maxY + 1];
+            this.columnTops = new int[maxX + 1];
+            Arrays.fill(this.columnTops, -1);
+            for (TetrisPoint point : this.body) {
+                this.rowMasks[point.y] |= 1L << point.x;
+                this.columnTops[point.x] = Math.max(this.columnTops[point.x], point.y);
+            }
+        }
     }
 
     /**
@@ -112,6 +129,26 @@ public class TetrisPiece implements Serializable {
         return lowestYVals;
     }
 
+    /**
+     * Returns the piece's body as one bitmask per row: bit x of element y is set when
+     * the body has a block at (x, y). The caller should not modify the array.
+     *
+     * @return row masks from y = 0 up to the top of the body, or null if the body has negative coordinates
+     */
+    public long[] getRowMasks() {
+        return rowMasks;
+    }
+
+    /**
+     * Returns, for each x from 0 up to the rightmost block, the highest y value in the body
+     * at that x, or -1 if the body has no block there. The caller should not modify the array.
+     *
+     * @return array of the highest Y value for every X value of the piece, or null if the body has negative coordinates
+     */
+    public int[] getColumnTops() {
+        return columnTops;
+    }
+
     /**
      * Returns true if two pieces are the same --
      * their bodies contain the same points.
@@ -146,30 +183,24 @@ public class TetrisPiece implements Serializable {
      * This method will be called by the model to facilitate
      * selection of random pieces to add to the board.
      * The pieces can be easily rotated because the rotations
-     * have been precomputed.
+     * have been precomputed, once, by the PieceRegistry, so any
+     * thread may call this. The index of a piece in the array is its id.
+     * The caller should not modify the array.
      *
      * @return a list of all the rotations for all the given pieces.
      */
     public static TetrisPiece[] getPieces() {
-        // lazy evaluation -- create static array only if needed
-        if (TetrisPiece.pieces==null) {
-            // use makeFastRotations() to compute all the rotations for each piece
-            try {
-                TetrisPiece.pieces = new TetrisPiece[]{
-                        makeFastRotations(new TetrisPiece(STICK_STR)),
-                        makeFastRotations(new TetrisPiece(L1_STR)),
-                        makeFastRotations(new TetrisPiece(L2_STR)),
-                        makeFastRotations(new TetrisPiece(S1_STR)),
-                        makeFastRotations(new TetrisPiece(S2_STR)),
-                        makeFastRotations(new TetrisPiece(SQUARE_STR)),
-                        makeFastRotations(new TetrisPiece(PYRAMID_STR)),
-                };
-            } catch (UnsupportedOperationException e) {
-                System.out.println("You must implement makeFastRotations!");
-                System.exit(1);
-            }
-        }
-        return TetrisPiece.pieces;
+        return PieceRegistry.standard().sharedPieces();
+    }
+
+    /**
+     * Returns the table of every rotation of the pieces returned by getPieces(),
+     * with the same piece ids.
+     *
+     * @return the piece table
+     */
+    public static PieceTable getPieceTable() {
+        return PieceRegistry.standard().getTable();
     }
 
     /**
@@ -202,15 +233,60 @@ public class TetrisPiece implements Serializable {
      * @return a piece that is a linked list containing all rotations for the piece
      */
     public static TetrisPiece makeFastRotations(TetrisPiece root) {
-        TetrisPiece result = root;
-        for (int i = 0; i < 4; i++) {
-            result.next = result.computeNextRotation();
-            result = result.next;
-            result.next = root;
+        TetrisPiece[] ring = new TetrisPiece[4]; //a quarter turn four times is back where it started
+        ring[0] = root;
+        int count = 1;
+        TetrisPiece rotated = root.computeNextRotation();
+        //stop as soon as a rotation repeats, so each appears once; a body that is not normalized
+        //may never come back to the root itself, so the ring is cut off at four whatever happens
+        while (count < ring.length && !contains(ring, count, rotated)) {
+            ring[count - 1].next = rotated;
+            ring[count++] = rotated;
+            rotated = rotated.computeNextRotation();
         }
+        ring[count - 1].next = root;
         return root;
     }
 
+    private static boolean contains(TetrisPiece[] pieces, int count, TetrisPiece piece) {
+        for (int i = 0; i < count; i++) {
+            if (pieces[i].equals(piece)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lists the rotations of a piece by following fastRotation() around its ring.
+     *
+     * @param piece one rotation of the piece
+     * @return every rotation of the piece, starting from the one given
+     */
+    static TetrisPiece[] ringOf(TetrisPiece piece) {
+        int count = 0;
+        TetrisPiece rotation = piece;
+        do {
+            count++;
+            rotation = rotation.fastRotation();
+        } while (rotation != null && rotation != piece);
+        TetrisPiece[] result = new TetrisPiece[count];
+        rotation = piece;
+        for (int i = 0; i < count; i++) {
+            result[i] = rotation;
+            rotation = rotation.fastRotation();
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if a piece object is one of the rotations in a ring; compared by identity
+     */
+    static boolean inRing(TetrisPiece[] ring, TetrisPiece piece) {
+        for (TetrisPiece rotation : ring) {
+            if (rotation == piece) return true;
+        }
+        return false;
+    }
+
     /**
      * Returns a new piece that is 90 degrees counter-clockwise
      * rotated from the receiver.
@@ -13,4 +13,13 @@ public interface TetrisPilot {
      * @return The best move, based on search for good moves
      */
     public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int limitHeight, int currentY);
-}
\ No newline at end of file
+
+    /**
+     * Tell the pilot how much time there is between ticks, so a pilot that searches
+     * against the clock can fit its moves in. Pilots that don't need it ignore it.
+     *
+     * @param nanos time between ticks in nanoseconds, or 0 if ticks are not timed
+     */
+    public default void setTickInterval(long nanos) {
+    }
+}
@@ -0,0 +1,99 @@
+package model;
+
+/**
+ * An immutable copy of the state of a game that a view needs to draw it: the grid, with the
+ * falling piece on it, one bitmask per row, and the score. Snapshots are cheap to take and
+ * can be read from any thread while the model carries on.
+ */
+public final class TetrisSnapshot {
+
+    private final int width; //board height and width
+    private final int height;
+    private final long[] rows; //one bitmask per row, bit x set when column x is filled
+    private final long rowsCleared; //board's rows cleared when the snapshot was taken
+    private final int score;
+    private final int count; //pieces played
+    private final boolean gameOn;
+
+    /**
+     * Take a snapshot of a model.
+     *
+     * @param model model to copy
+     */
+    TetrisSnapshot(TetrisModel model) {
+        TetrisBoard board = model.board;
+        width = board.getWidth();
+        height = board.getHeight();
+        rows = new long[height];
+        for (int y = 0; y < height; y++) rows[y] = board.getRowMask(y);
+        rowsCleared = board.getRowsCleared();
+        score = model.score;
+        count = model.count;
+        gameOn = model.gameOn;
+    }
+
+    /**
+     * Getter for the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the filled blocks of a row as a bitmask, as TetrisBoard.getRowMask does
+     *
+     * @param y grid row, y
+     * @return bitmask of the filled blocks in row y
+     */
+    public long getRowMask(int y) {
+        return rows[y];
+    }
+
+    /**
+     * Returns true if the given block is filled
+     *
+     * @param x grid position, x
+     * @param y grid position, y
+     * @return true if filled
+     */
+    public boolean getGrid(int x, int y) {
+        return (rows[y] >>> x & 1L) != 0;
+    }
+
+    /**
+     * Getter for the rows the board had cleared when the snapshot was taken, see TetrisBoard.getRowsCleared
+     */
+    public long getRowsCleared() {
+        return rowsCleared;
+    }
+
+    /**
+     * Getter for the score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Getter for the number of pieces placed
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Getter for game state
+     *
+     * @return true while the game was being played
+     */
+    public boolean isGameOn() {
+        return gameOn;
+    }
+}
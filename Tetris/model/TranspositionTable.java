@@ -0,0 +1,149 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache from 64-bit position keys, such as TetrisBoard.getHash() mixed with whatever
+ * else a score depends on, to scores a search has already worked out.
+ *
+ * The table is split into sets of WAYS entries and a key can only go in the set its bits pick.
+ * When a set is full, the entry to replace is chosen by clock eviction: each entry has a
+ * referenced bit that lookups set, and a hand sweeps the set clearing the bits until it finds
+ * an entry that was not used since the hand last passed. Hits, misses and evictions are counted.
+ *
+ * A table is not thread-safe; give each search thread its own.
+ */
+public final class TranspositionTable {
+
+    public static final int WAYS = 4; //entries per set
+
+    private static final byte EMPTY = 0, USED = 1, REFERENCED = 2;
+
+    private final long[] keys;
+    private final double[] scores;
+    private final byte[] states; //EMPTY, USED or REFERENCED
+    private final byte[] hands; //clock hand of each set
+    private final int setMask;
+
+    private long hits, misses, evictions;
+
+    /**
+     * Constructor
+     *
+     * @param capacity most entries to keep; rounded up to a power of two, and to at least WAYS
+     */
+    public TranspositionTable(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int sets = Integer.highestOneBit((capacity + WAYS - 1) / WAYS);
+        if (sets * WAYS < capacity) sets <<= 1;
+        keys = new long[sets * WAYS];
+        scores = new double[sets * WAYS];
+        states = new byte[sets * WAYS];
+        hands = new byte[sets];
+        setMask = sets - 1;
+    }
+
+    /**
+     * Look up the score stored for a key.
+     *
+     * @param key position key
+     * @return the score, or NaN if the key is not in the table
+     */
+    public double get(long key) {
+        int base = setOf(key) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            if (states[i] != EMPTY && keys[i] == key) {
+                states[i] = REFERENCED;
+                hits++;
+                return scores[i];
+            }
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+    /**
+     * Store the score of a key, replacing the score stored for it before, if any.
+     *
+     * @param key position key
+     * @param score its score; NaN cannot be stored
+     */
+    public void put(long key, double score) {
+        int set = setOf(key);
+        int base = set * WAYS;
+        int free = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            if (states[i] == EMPTY) {
+                if (free < 0) free = i;
+            } else if (keys[i] == key) {
+                scores[i] = score;
+                return;
+            }
+        }
+        if (free < 0) {
+            //sweep the clock hand round the set, giving referenced entries a second chance
+            int hand = hands[set];
+            while (states[base + hand] == REFERENCED) {
+                states[base + hand] = USED;
+                hand = (hand + 1) % WAYS;
+            }
+            free = base + hand;
+            hands[set] = (byte) ((hand + 1) % WAYS);
+            evictions++;
+        }
+        keys[free] = key;
+        scores[free] = score;
+        states[free] = USED;
+    }
+
+    /**
+     * Empty the table and reset the counters
+     */
+    public void clear() {
+        Arrays.fill(states, EMPTY);
+        Arrays.fill(hands, (byte) 0);
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * Getter for the number of entries the table can hold
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Getter for the number of lookups that found their key
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Getter for the number of lookups that did not find their key
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Getter for the number of entries replaced to make room for new ones
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Fraction of lookups that found their key
+     *
+     * @return hits / lookups, or 0 before the first lookup
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private int setOf(long key) {
+        return (int) (key ^ (key >>> 32)) & setMask;
+    }
+}
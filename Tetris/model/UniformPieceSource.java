@@ -0,0 +1,48 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * A piece source that picks every piece independently and uniformly at random.
+ * This is how the model has always picked its pieces; a seed makes the sequence reproducible.
+ */
+public class UniformPieceSource implements PieceSource {
+
+    private final long seed; //seed the generator started from
+    private final int pieceCount; //number of different pieces
+    private final Random random; //the random generator for new pieces
+    private long drawn; //pieces drawn so far
+
+    /**
+     * Constructor
+     *
+     * @param seed seed for the random generator
+     * @param pieceCount number of different pieces to pick from
+     */
+    public UniformPieceSource(long seed, int pieceCount) {
+        if (pieceCount < 1) throw new IllegalArgumentException("Need at least one piece: " + pieceCount);
+        this.seed = seed;
+        this.pieceCount = pieceCount;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public int nextPieceId() {
+        drawn++;
+        return (int) (pieceCount * random.nextDouble());
+    }
+
+    /**
+     * Getter for the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Getter for the number of pieces drawn so far
+     */
+    public long getDrawn() {
+        return drawn;
+    }
+}
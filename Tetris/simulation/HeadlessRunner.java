@@ -0,0 +1,210 @@
+package simulation;
+
+import model.BagPieceSource;
+import model.PieceSource;
+import model.PilotRegistry;
+import model.TetrisModel;
+import model.TetrisPiece;
+import model.TetrisPilot;
+import model.UniformPieceSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Headless Simulation Runner
+ *
+ * Plays many autopilot games of TetrisModel as fast as the CPU allows, without JavaFX,
+ * spreading the games across threads. Game i always draws its pieces from a source seeded
+ * from the run seed and i, so a run can be repeated exactly whatever the thread count.
+ * Each game's pieces are generated in bulk before it starts.
+ */
+public class HeadlessRunner {
+
+    private final int games; //number of games to play
+    private final int threads; //worker threads to play them on
+    private final long seed; //seed the per-game seeds are derived from
+    private final int maxPieces; //a game is stopped after this many pieces, as a good pilot may never lose
+    private final Supplier<TetrisPilot> pilots; //makes one pilot per game, as pilots keep scratch state
+    private final LongFunction<PieceSource> sources; //makes the piece source of a game from its seed
+
+    /**
+     * Constructor
+     *
+     * @param games number of games to play
+     * @param threads number of worker threads
+     * @param seed seed for the run
+     * @param maxPieces pieces after which a game is stopped
+     * @param pilots factory for the pilot of each game
+     */
+    public HeadlessRunner(int games, int threads, long seed, int maxPieces, Supplier<TetrisPilot> pilots) {
+        this(games, threads, seed, maxPieces, pilots, HeadlessRunner::uniformSource);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param games number of games to play
+     * @param threads number of worker threads
+     * @param seed seed for the run
+     * @param maxPieces pieces after which a game is stopped
+     * @param pilots factory for the pilot of each game
+     * @param sources factory for the piece source of each game, given the game's seed
+     */
+    public HeadlessRunner(int games, int threads, long seed, int maxPieces, Supplier<TetrisPilot> pilots,
+                          LongFunction<PieceSource> sources) {
+        if (games < 1 || threads < 1 || maxPieces < 1) {
+            throw new IllegalArgumentException("games, threads and maxPieces must be positive");
+        }
+        this.games = games;
+        this.threads = threads;
+        this.seed = seed;
+        this.maxPieces = maxPieces;
+        this.pilots = pilots;
+        this.sources = sources;
+    }
+
+    /**
+     * Play every game and collect the results.
+     *
+     * @return the results of the run
+     */
+    public SimulationReport run() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<GameResult>> futures = new ArrayList<>(games);
+            for (int i = 0; i < games; i++) {
+                long gameSeed = gameSeed(i);
+                futures.add(executor.submit(() -> playGame(gameSeed, sources.apply(gameSeed), pilots.get(), maxPieces)));
+            }
+            GameResult[] results = new GameResult[games];
+            for (int i = 0; i < games; i++) {
+                results[i] = futures.get(i).get();
+            }
+            return new SimulationReport(results, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Simulated game failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Seed for game i of this run
+     *
+     * @param i game index
+     * @return the seed of that game's piece generator
+     */
+    public long gameSeed(int i) {
+        return new Random(seed + i * 0x9E3779B97F4A7C15L).nextLong();
+    }
+
+    /**
+     * Play one game to the end, or until maxPieces pieces have been played,
+     * with pieces picked uniformly at random.
+     *
+     * @param seed seed for the piece generator
+     * @param pilot pilot that plays the game
+     * @param maxPieces pieces after which the game is stopped
+     * @return the result of the game
+     */
+    public static GameResult playGame(long seed, TetrisPilot pilot, int maxPieces) {
+        return playGame(seed, uniformSource(seed), pilot, maxPieces);
+    }
+
+    /**
+     * Play one game to the end, or until maxPieces pieces have been played.
+     *
+     * @param seed seed the piece source was made from, for the record
+     * @param source source of the game's pieces
+     * @param pilot pilot that plays the game
+     * @param maxPieces pieces after which the game is stopped
+     * @return the result of the game
+     */
+    public static GameResult playGame(long seed, PieceSource source, TetrisPilot pilot, int maxPieces) {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(pilot);
+        model.setAutoPilotMode();
+        model.startGame(source.prefetch(maxPieces + 1)); //the count starts after the first piece
+        long ticks = 0;
+        while (model.isGameOn() && model.getCount() < maxPieces) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            ticks++;
+        }
+        return new GameResult(seed, model.getScore(), model.getCount(), model.getBoard().getRowsCleared(),
+                ticks, !model.isGameOn());
+    }
+
+    /**
+     * Piece source picking the standard pieces uniformly at random
+     *
+     * @param seed seed for the random generator
+     * @return the source
+     */
+    public static PieceSource uniformSource(long seed) {
+        return new UniformPieceSource(seed, TetrisPiece.getPieces().length);
+    }
+
+    /**
+     * Piece source dealing the standard pieces from shuffled bags
+     *
+     * @param seed seed for the random generator
+     * @return the source
+     */
+    public static PieceSource bagSource(long seed) {
+        return new BagPieceSource(seed, TetrisPiece.getPieces().length);
+    }
+
+    /**
+     * Main method. Arguments, all optional: games, threads, seed, maxPieces, "bag" to deal pieces
+     * from shuffled bags (or "uniform" to pick them uniformly), the name of a pilot from PilotRegistry,
+     * and a time budget for each of its moves in milliseconds.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 207L;
+        int maxPieces = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        boolean bag = args.length > 4 && args[4].equalsIgnoreCase("bag");
+        String pilot = args.length > 5 ? args[5] : PilotRegistry.DEFAULT;
+        long budgetNanos = args.length > 6 ? (long) (Double.parseDouble(args[6]) * 1e6) : 0;
+
+        Supplier<TetrisPilot> pilots = budgetNanos > 0
+                ? () -> PilotRegistry.create(pilot, budgetNanos)
+                : PilotRegistry.factory(pilot);
+        HeadlessRunner runner = new HeadlessRunner(games, threads, seed, maxPieces, pilots,
+                bag ? HeadlessRunner::bagSource : HeadlessRunner::uniformSource);
+        System.out.println(runner.run());
+    }
+
+    /**
+     * The outcome of one simulated game
+     */
+    public static class GameResult {
+        public final long seed; //seed of the piece generator
+        public final int score;
+        public final int pieces; //pieces played
+        public final long lines; //rows cleared
+        public final long ticks; //model ticks played
+        public final boolean lost; //false if the game was stopped at maxPieces
+
+        GameResult(long seed, int score, int pieces, long lines, long ticks, boolean lost) {
+            this.seed = seed;
+            this.score = score;
+            this.pieces = pieces;
+            this.lines = lines;
+            this.ticks = ticks;
+            this.lost = lost;
+        }
+    }
+}
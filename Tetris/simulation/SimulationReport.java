@@ -0,0 +1,130 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Simulation Report
+ *
+ * Throughput and score distribution of a headless run.
+ */
+public class SimulationReport {
+
+    private final HeadlessRunner.GameResult[] results;
+    private final long elapsedNanos;
+    private final int[] sortedScores;
+    private final long totalPieces;
+    private final long totalTicks;
+    private final int lost;
+
+    /**
+     * Constructor
+     *
+     * @param results result of every game, in game order
+     * @param elapsedNanos wall clock time of the run
+     */
+    public SimulationReport(HeadlessRunner.GameResult[] results, long elapsedNanos) {
+        this.results = results.clone();
+        this.elapsedNanos = elapsedNanos;
+        sortedScores = new int[results.length];
+        long pieces = 0, ticks = 0;
+        int lostGames = 0;
+        for (int i = 0; i < results.length; i++) {
+            sortedScores[i] = results[i].score;
+            pieces += results[i].pieces;
+            ticks += results[i].ticks;
+            if (results[i].lost) lostGames++;
+        }
+        Arrays.sort(sortedScores);
+        totalPieces = pieces;
+        totalTicks = ticks;
+        lost = lostGames;
+    }
+
+    /**
+     * Getter for the result of every game, in game order
+     */
+    public HeadlessRunner.GameResult[] getResults() {
+        return results.clone();
+    }
+
+    /**
+     * Getter for the number of games played
+     */
+    public int getGames() {
+        return results.length;
+    }
+
+    /**
+     * Getter for the number of games that ended in a loss rather than at the piece limit
+     */
+    public int getLost() {
+        return lost;
+    }
+
+    /**
+     * Getter for the total number of pieces played
+     */
+    public long getTotalPieces() {
+        return totalPieces;
+    }
+
+    /**
+     * Games completed per second of wall clock time
+     */
+    public double gamesPerSecond() {
+        return results.length / seconds();
+    }
+
+    /**
+     * Pieces played per second of wall clock time
+     */
+    public double piecesPerSecond() {
+        return totalPieces / seconds();
+    }
+
+    /**
+     * Model ticks played per second of wall clock time
+     */
+    public double ticksPerSecond() {
+        return totalTicks / seconds();
+    }
+
+    /**
+     * Mean score over all games
+     */
+    public double meanScore() {
+        double total = 0;
+        for (int score : sortedScores) total += score;
+        return total / sortedScores.length;
+    }
+
+    /**
+     * Score at the given percentile, using the nearest-rank method
+     *
+     * @param percentile between 0 and 100
+     * @return the score that percentile of games did not exceed
+     */
+    public int scorePercentile(double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sortedScores.length);
+        return sortedScores[Math.max(0, Math.min(sortedScores.length - 1, rank - 1))];
+    }
+
+    private double seconds() {
+        return Math.max(elapsedNanos, 1) / 1e9;
+    }
+
+    /**
+     * Print the report
+     *
+     * @return a summary of the run
+     */
+    public String toString() {
+        return String.format("%d games (%d lost) in %.2f s%n"
+                        + "  %.1f games/s, %.0f pieces/s, %.0f ticks/s%n"
+                        + "  score: min %d, p10 %d, median %d, mean %.1f, p90 %d, max %d",
+                results.length, lost, seconds(),
+                gamesPerSecond(), piecesPerSecond(), ticksPerSecond(),
+                sortedScores[0], scorePercentile(10), scorePercentile(50), meanScore(),
+                scorePercentile(90), sortedScores[sortedScores.length - 1]);
+    }
+}
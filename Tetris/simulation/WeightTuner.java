@@ -0,0 +1,354 @@
+package simulation;
+
+import model.AutoPilot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Weight Tuner
+ *
+ * Tunes the AutoPilot evaluation weights by self-play, with the cross-entropy method. Each generation
+ * draws a population of weight vectors from a normal distribution, every vector plays the same seeded
+ * headless games, and the distribution moves to the mean and spread of the vectors that cleared the
+ * most lines (the elite). All AutoPilot.WEIGHT_COUNT weights are tuned, starting from the defaults.
+ *
+ * Games are spread over a thread pool and share nothing mutable: each builds its own model and pilot,
+ * and adds its pieces, lines and score to its vector's LongAdders when it ends. The game that finishes
+ * a vector offers it to the best vector found so far, which is kept in an AtomicReference.
+ *
+ * After every generation the state of the run is written to a checkpoint file, and a tuner given an
+ * existing checkpoint carries on from it. Generation g draws its vectors and game seeds from the run
+ * seed and g alone, so a resumed run ends up where an uninterrupted one would.
+ */
+public class WeightTuner {
+
+    public static final int MAGIC = 0x54545754; //"TTWT"
+    public static final short VERSION = 1;
+
+    private static final double INITIAL_SIGMA = 0.5; //spread of each weight in the first generation
+    private static final double NOISE = 0.25; //variance added to each weight, divided by the generation number, so the search doesn't collapse early
+
+    private final int population; //weight vectors per generation
+    private final int elite; //vectors the next generation is fitted to
+    private final int games; //games each vector plays
+    private final int maxPieces; //a game is stopped after this many pieces
+    private final int threads; //worker threads to play on
+    private final long seed; //seed the generations are derived from
+    private final Path checkpoint; //where the run is saved after each generation, or null
+
+    private double[] mean; //distribution the next generation is drawn from
+    private double[] sigma;
+    private int generation; //generations completed
+    private final AtomicReference<Candidate> best = new AtomicReference<>();
+
+    /**
+     * Constructor. If the checkpoint file exists, the run carries on from it.
+     *
+     * @param population weight vectors per generation
+     * @param elite number of best vectors the next generation is fitted to
+     * @param games games each vector plays per generation
+     * @param maxPieces pieces after which a game is stopped
+     * @param threads number of worker threads
+     * @param seed seed for the run
+     * @param checkpoint file to save the run to after each generation, or null not to save it
+     * @throws IOException if the checkpoint exists but can't be read, or is from a run with another seed
+     */
+    public WeightTuner(int population, int elite, int games, int maxPieces, int threads, long seed, Path checkpoint)
+            throws IOException {
+        if (population < 2 || elite < 1 || elite > population || games < 1 || maxPieces < 1 || threads < 1) {
+            throw new IllegalArgumentException("population must be at least 2, elite between 1 and population,"
+                    + " and games, maxPieces and threads positive");
+        }
+        this.population = population;
+        this.elite = elite;
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.threads = threads;
+        this.seed = seed;
+        this.checkpoint = checkpoint;
+        mean = Arrays.copyOf(AutoPilot.DEFAULT_WEIGHTS, AutoPilot.WEIGHT_COUNT); //new weights start at 0
+        sigma = new double[AutoPilot.WEIGHT_COUNT];
+        Arrays.fill(sigma, INITIAL_SIGMA);
+        if (checkpoint != null && Files.exists(checkpoint)) readCheckpoint();
+    }
+
+    /**
+     * Getter for the number of generations completed, counting those of the run this one resumed
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Getter for the mean of the distribution the next generation will be drawn from
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * Getter for the best weight vector found so far
+     *
+     * @return the vector and its results, or null before the first generation
+     */
+    public Candidate getBest() {
+        return best.get();
+    }
+
+    /**
+     * Play one generation, refit the distribution to its elite and save the checkpoint.
+     *
+     * @return the best vector of this generation
+     */
+    public Candidate runGeneration() throws InterruptedException, IOException {
+        Random random = new Random(seed + generation * 0x9E3779B97F4A7C15L);
+        double[][] weights = new double[population][mean.length];
+        for (double[] vector : weights) {
+            for (int k = 0; k < vector.length; k++) vector[k] = mean[k] + sigma[k] * random.nextGaussian();
+        }
+        long[] gameSeeds = new long[games]; //every vector plays the same games, so they are compared fairly
+        for (int j = 0; j < games; j++) gameSeeds[j] = random.nextLong();
+
+        Results results = new Results(generation, weights, games);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>(population * games);
+            for (int i = 0; i < population; i++) {
+                for (int j = 0; j < games; j++) {
+                    int vector = i;
+                    long gameSeed = gameSeeds[j];
+                    tasks.add(() -> {
+                        results.add(vector, HeadlessRunner.playGame(gameSeed, new AutoPilot(weights[vector]), maxPieces));
+                        return null;
+                    });
+                }
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Simulated game failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Candidate[] ranked = new Candidate[population];
+        for (int i = 0; i < population; i++) ranked[i] = results.candidate(i);
+        Arrays.sort(ranked, Candidate.BEST_FIRST);
+
+        //fit the distribution to the elite, widened by some noise
+        double noise = NOISE / (generation + 1);
+        for (int k = 0; k < mean.length; k++) {
+            double sum = 0, squares = 0;
+            for (int i = 0; i < elite; i++) {
+                double w = ranked[i].weights[k];
+                sum += w;
+                squares += w * w;
+            }
+            double m = sum / elite;
+            mean[k] = m;
+            sigma[k] = Math.sqrt(Math.max(squares / elite - m * m, 0) + noise);
+        }
+        generation++;
+        if (checkpoint != null) writeCheckpoint();
+        return ranked[0];
+    }
+
+    /**
+     * Write the state of the run to the checkpoint file. The file is written next to the checkpoint
+     * and moved over it, so an interrupted write leaves the last checkpoint as it was.
+     */
+    private void writeCheckpoint() throws IOException {
+        int n = mean.length;
+        ByteBuffer buffer = ByteBuffer.allocate(32 + 8 * (3 * n + 3) + 4);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) n);
+        buffer.putInt(generation);
+        buffer.putLong(seed);
+        for (double m : mean) buffer.putDouble(m);
+        for (double s : sigma) buffer.putDouble(s);
+        Candidate top = best.get();
+        buffer.put((byte) (top == null ? 0 : 1));
+        if (top != null) {
+            buffer.putInt(top.generation).putInt(top.index);
+            for (double w : top.weights) buffer.putDouble(w);
+            buffer.putDouble(top.lines).putDouble(top.pieces).putDouble(top.score);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temp, Arrays.copyOf(buffer.array(), buffer.position()));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the state of a run from the checkpoint file.
+     */
+    private void readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+        if (buffer.remaining() < 4 + 2 + 4) throw new IOException("Not a tuner checkpoint: too short");
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a tuner checkpoint: bad magic number");
+        short version = buffer.getShort();
+        if (version != VERSION) throw new IOException("Unsupported tuner checkpoint version " + version);
+        int end = buffer.limit() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, end);
+        if ((int) crc.getValue() != buffer.getInt(end)) throw new IOException("Tuner checkpoint is corrupt: bad checksum");
+
+        try {
+            int n = buffer.getShort();
+            if (n != mean.length) throw new IOException("Checkpoint has " + n + " weights, expected " + mean.length);
+            int savedGeneration = buffer.getInt();
+            long savedSeed = buffer.getLong();
+            if (savedSeed != seed) throw new IOException("Checkpoint is from a run with seed " + savedSeed);
+            for (int k = 0; k < n; k++) mean[k] = buffer.getDouble();
+            for (int k = 0; k < n; k++) sigma[k] = buffer.getDouble();
+            if (buffer.get() != 0) {
+                int bestGeneration = buffer.getInt(), bestIndex = buffer.getInt();
+                double[] weights = new double[n];
+                for (int k = 0; k < n; k++) weights[k] = buffer.getDouble();
+                best.set(new Candidate(bestGeneration, bestIndex, weights,
+                        buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+            }
+            generation = savedGeneration;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Tuner checkpoint is truncated", e);
+        }
+    }
+
+    /**
+     * Main method. Arguments, all optional: generations, population, elite, games, maxPieces, threads,
+     * seed and checkpoint file. Run it again with the same checkpoint to carry on after an interruption.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int population = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int elite = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int games = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int maxPieces = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 207L;
+        Path checkpoint = Path.of(args.length > 7 ? args[7] : "tuner.ckpt");
+
+        WeightTuner tuner = new WeightTuner(population, elite, games, maxPieces, threads, seed, checkpoint);
+        if (tuner.getGeneration() > 0) System.out.println("Resuming after generation " + tuner.getGeneration());
+        while (tuner.getGeneration() < generations) {
+            Candidate top = tuner.runGeneration();
+            System.out.println("generation " + tuner.getGeneration() + ": best " + top);
+        }
+        System.out.println("best overall: " + tuner.getBest());
+    }
+
+    /**
+     * A weight vector and its mean results over the games it played
+     */
+    public static class Candidate {
+
+        //most lines first, then best score, then the earliest drawn, so the order never depends on thread timing
+        static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble((Candidate c) -> -c.lines)
+                .thenComparingDouble(c -> -c.score)
+                .thenComparingInt(c -> c.generation)
+                .thenComparingInt(c -> c.index);
+
+        public final int generation; //generation the vector was drawn in
+        public final int index; //its position in that generation
+        private final double[] weights;
+        public final double lines; //rows cleared per game
+        public final double pieces; //pieces played per game
+        public final double score; //score per game
+
+        Candidate(int generation, int index, double[] weights, double lines, double pieces, double score) {
+            this.generation = generation;
+            this.index = index;
+            this.weights = weights.clone();
+            this.lines = lines;
+            this.pieces = pieces;
+            this.score = score;
+        }
+
+        /**
+         * Getter for the weights, in the order AutoPilot takes them
+         */
+        public double[] getWeights() {
+            return weights.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f lines, %.1f pieces, score %.1f, weights %s",
+                    lines, pieces, score, Arrays.toString(weights));
+        }
+    }
+
+    /**
+     * Lock-free totals of the games of one generation, one set of counters per weight vector.
+     * Game threads only ever add to them.
+     */
+    private class Results {
+        private final int generation;
+        private final double[][] weights;
+        private final int games;
+        private final LongAdder[] lines, pieces, score;
+        private final AtomicIntegerArray remaining; //games each vector has still to play
+
+        Results(int generation, double[][] weights, int games) {
+            this.generation = generation;
+            this.weights = weights;
+            this.games = games;
+            lines = adders(weights.length);
+            pieces = adders(weights.length);
+            score = adders(weights.length);
+            remaining = new AtomicIntegerArray(weights.length);
+            for (int i = 0; i < weights.length; i++) remaining.set(i, games);
+        }
+
+        /**
+         * Add the result of one of a vector's games; the vector's last game offers it as the best so far.
+         */
+        void add(int vector, HeadlessRunner.GameResult result) {
+            lines[vector].add(result.lines);
+            pieces[vector].add(result.pieces);
+            score[vector].add(result.score);
+            if (remaining.decrementAndGet(vector) == 0) {
+                Candidate candidate = candidate(vector);
+                best.accumulateAndGet(candidate, (a, b) -> a == null || Candidate.BEST_FIRST.compare(b, a) < 0 ? b : a);
+            }
+        }
+
+        /**
+         * The results of a vector that has played all its games
+         */
+        Candidate candidate(int vector) {
+            return new Candidate(generation, vector, weights[vector], (double) lines[vector].sum() / games,
+                    (double) pieces[vector].sum() / games, (double) score[vector].sum() / games);
+        }
+
+        private LongAdder[] adders(int count) {
+            LongAdder[] adders = new LongAdder[count];
+            for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+            return adders;
+        }
+    }
+}
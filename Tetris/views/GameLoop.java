@@ -0,0 +1,152 @@
+package views;
+
+import model.TetrisModel;
+import model.TetrisSnapshot;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Game Loop
+ *
+ * Advances a TetrisModel on its own thread at a fixed timestep, so that drawing on the JavaFX
+ * thread never waits for the model. The model plans its autopilot moves on a thread of its own,
+ * so a slow pilot never stalls the ticks either: a tick whose move is not ready is just gravity.
+ * Other threads change the model only by posting commands, which the loop runs between ticks,
+ * and read it only through the snapshots the model publishes.
+ */
+class GameLoop implements Runnable {
+
+    static final long TICK_NANOS = 250_000_000L; //time between gravity ticks at rate 1
+    private static final int MAX_CATCH_UP = 5; //ticks run back to back after a stall, before the loop gives up on them
+
+    private final Queue<Consumer<TetrisModel>> commands = new ConcurrentLinkedQueue<>();
+    private volatile TetrisModel model; //only changed on the loop thread, and under its lock
+    private volatile double rate = 1; //gravity ticks per TICK_NANOS
+    private volatile boolean paused;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructor
+     *
+     * @param model model to play; it should not be touched by other threads once the loop starts
+     */
+    GameLoop(TetrisModel model) {
+        this.model = model;
+        model.setAsyncPlanning(true);
+    }
+
+    /**
+     * Start the loop thread
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this, "Tetris model");
+        thread.setDaemon(true); //don't keep the application alive once the window is closed
+        thread.start();
+    }
+
+    /**
+     * Stop the loop thread after the current tick
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Run a command on the loop thread before the next tick, e.g. a key press or a new game.
+     *
+     * @param command what to do with the model
+     */
+    void post(Consumer<TetrisModel> command) {
+        commands.add(command);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Swap the model being played, e.g. when a game is loaded
+     *
+     * @param newModel model to play from now on
+     */
+    void setModel(TetrisModel newModel) {
+        post(m -> {
+            m.setAsyncPlanning(false); //stop planning for the old game
+            newModel.setAsyncPlanning(true);
+            model = newModel;
+        });
+    }
+
+    /**
+     * Set the speed of the game
+     *
+     * @param rate multiple of the default speed; 0 stops gravity
+     */
+    void setRate(double rate) {
+        this.rate = rate;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Pause or resume gravity; commands still run while paused
+     *
+     * @param paused true to pause
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Getter for pause state
+     */
+    boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Getter for the latest state of the game being played. Safe to call from any thread.
+     */
+    TetrisSnapshot getSnapshot() {
+        return model.getSnapshot();
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime(); //when the next gravity tick is due
+        while (running) {
+            for (Consumer<TetrisModel> command; (command = commands.poll()) != null; ) {
+                TetrisModel current = model;
+                synchronized (current) {
+                    command.accept(current);
+                }
+            }
+
+            long now = System.nanoTime();
+            double currentRate = rate;
+            long step = (paused || currentRate <= 0) ? 0 : (long) (TICK_NANOS / currentRate);
+            if (step == 0) {
+                next = now; //resume with a tick as soon as gravity is back on
+            } else {
+                for (int i = 0; i < MAX_CATCH_UP && now - next >= 0; i++) {
+                    synchronized (model) {
+                        model.getPilot().setTickInterval(step); //so a pilot searching against the clock keeps up with the slider
+                        model.modelTick(TetrisModel.MoveType.DOWN);
+                    }
+                    next += step;
+                }
+                if (now - next >= 0) next = now + step; //too far behind, drop the missed ticks
+            }
+
+            if (!commands.isEmpty()) continue;
+            if (step == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, next - System.nanoTime());
+            }
+        }
+    }
+}
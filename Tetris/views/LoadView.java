@@ -1,5 +1,6 @@
 package views;
 
+import model.SaveFile;
 import model.TetrisModel;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -38,7 +39,7 @@ public class LoadView {
      * @param tetrisView master view
      */
     public LoadView (TetrisView tetrisView) {
-        tetrisView.paused = true;
+        tetrisView.setPaused(true);
         this.tetrisView = tetrisView;
         selectBoardLabel = new Label(String.format("Currently playing: Default Board"));
         boardsList = new ListView<>(); //list of tetris.boards
@@ -88,12 +89,13 @@ public class LoadView {
         dialog.setScene(dialogScene);
         dialog.show();
         dialog.setOnCloseRequest(event -> {
-            tetrisView.paused = false;
+            tetrisView.setPaused(false);
         });
     }
 
     /**
-     * Populate the listView with all the .SER files in the boards directory
+     * Populate the listView with all the saved games in the boards directory, both in the
+     * SaveFile format and in the .ser format of older versions
      *
      * @param listView ListView to update
      * @return the index in the listView of Stater.ser
@@ -101,8 +103,8 @@ public class LoadView {
     private void getFiles(ListView<String> listView) {
         File[] files = new File("boards/").listFiles();
         for (File file : files) {
-            String ext = file.toString().substring(file.toString().lastIndexOf("."));
-            if (ext.equalsIgnoreCase(".ser")) {
+            String ext = file.toString().substring(Math.max(file.toString().lastIndexOf("."), 0));
+            if (ext.equalsIgnoreCase(SaveFile.EXTENSION) || ext.equalsIgnoreCase(".ser")) {
                 listView.getItems().add(file.toString());
             }
         }
@@ -115,35 +117,20 @@ public class LoadView {
      * @param boardsList a ListView populated with tetris.boards to load
      */
     private void selectBoard(Label selectBoardLabel, ListView<String> boardsList) throws IOException {
-        this.tetrisView.model = this.loadBoard(boardsList.getSelectionModel().getSelectedItem());
+        this.tetrisView.setModel(this.loadBoard(boardsList.getSelectionModel().getSelectedItem()));
         selectBoardLabel.setText("Currently Playing: " + boardsList.getSelectionModel().getSelectedItem());
     }
 
     /**
-     * Load the board from a file
+     * Load the board from a file. Files in the .ser format of older versions are imported.
      *
      * @param boardFile file to load
      * @return loaded Tetris Model
      */
     public TetrisModel loadBoard(String boardFile) throws IOException {
         System.out.println("boardFile: " + boardFile);
-
-        // Reading the object from a file
-        FileInputStream file = null;
-        ObjectInputStream in = null;
-        try {
-            file = new FileInputStream(boardFile);
-            in = new ObjectInputStream(file);
-            return (TetrisModel) in.readObject();
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        } finally {
-            in.close();
-            file.close();
-        }
+        Path path = Paths.get(boardFile);
+        if (boardFile.toLowerCase().endsWith(".ser")) return SaveFile.importSerialized(path);
+        return SaveFile.read(path);
     }
 }
@@ -1,5 +1,8 @@
 package views;
 
+import model.SaveFile;
+import model.TetrisModel;
+
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -11,9 +14,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -27,7 +28,7 @@ public class SaveView {
 
     static String saveFileSuccess = "Saved board!!";
     static String saveFileExistsError = "Error: File already exists";
-    static String saveFileNotSerError = "Error: File must end with .ser";
+    static String saveFileNotSerError = "Error: File must end with " + SaveFile.EXTENSION;
     private Label saveFileErrorLabel = new Label("");
     private Label saveBoardLabel = new Label(String.format("Enter name of file to save"));
     private TextField saveFileNameTextField = new TextField("");
@@ -42,7 +43,7 @@ public class SaveView {
     public SaveView(TetrisView tetrisView) {
         this.tetrisView = tetrisView;
 
-        tetrisView.paused = true;
+        tetrisView.setPaused(true);
         final Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.initOwner(tetrisView.stage);
@@ -60,7 +61,7 @@ public class SaveView {
         saveFileNameTextField.setStyle("-fx-text-fill: #e8e6e3;");
         saveFileNameTextField.setFont(new Font(16));
 
-        String boardName = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date()) + ".ser";
+        String boardName = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date()) + SaveFile.EXTENSION;
         saveFileNameTextField.setText(boardName);
 
         saveBoardButton = new Button("Save board");
@@ -77,7 +78,7 @@ public class SaveView {
         dialog.setScene(dialogScene);
         dialog.show();
         dialog.setOnCloseRequest(event -> {
-            tetrisView.paused = false;
+            tetrisView.setPaused(false);
         });
 
     }
@@ -86,22 +87,20 @@ public class SaveView {
      * Save the board to a file 
      */
     public void saveBoard() {
-        FileOutputStream file = null;
-        ObjectOutputStream out = null;
         try {
             File file1 = new File("boards/" + this.saveFileNameTextField.getText());
-            String ext = file1.getName().substring(file1.getName().lastIndexOf("."));
-            if (!ext.equalsIgnoreCase(".ser")) {
+            String ext = file1.getName().substring(Math.max(file1.getName().lastIndexOf("."), 0));
+            if (!ext.equalsIgnoreCase(SaveFile.EXTENSION)) {
                 this.saveFileErrorLabel.setText(this.saveFileNotSerError);
                 return;
             } else if (file1.exists()) {
                 this.saveFileErrorLabel.setText(this.saveFileExistsError);
                 return;
             }
-            file = new FileOutputStream("boards/" + this.saveFileNameTextField.getText());
-            out = new ObjectOutputStream(file);
-            out.writeObject(this.tetrisView.model);
-            out.close();
+            TetrisModel model = this.tetrisView.model;
+            synchronized (model) { //the game loop only changes the model while holding its lock
+                SaveFile.write(model, file1.toPath());
+            }
             this.saveFileErrorLabel.setText(this.saveFileSuccess);
         } catch (IOException e) {
             System.out.println("IOException");
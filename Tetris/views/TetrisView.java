@@ -1,9 +1,13 @@
 package views;
 
+import model.BudgetedPilot;
+import model.PilotRegistry;
+import model.TetrisBoard;
 import model.TetrisModel;
+import model.TetrisPilot;
+import model.TetrisSnapshot;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -19,7 +23,6 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 
 /**
@@ -29,26 +32,35 @@ import javafx.util.Duration;
  */
 public class TetrisView {
 
+    private static final double PILOT_BUDGET = 0.5; //share of a tick each pilot move may take before a greedy move stands in
+
     TetrisModel model; //reference to model
     Stage stage;
 
     Button startButton, stopButton, loadButton, saveButton, newButton; //buttons for functions
     Label scoreLabel = new Label("");
     Label gameModeLabel = new Label("");
+    ToggleGroup toggleGroup; //human or one of the registry's pilots; a pilot button's user data is its name
 
     BorderPane borderPane;
     Canvas canvas;
     GraphicsContext gc; //the graphics context will be linked to the canvas
 
-    Boolean paused;
-    Timeline timeline;
+    GameLoop gameLoop; //plays the model on its own thread
+    AnimationTimer renderer; //draws the latest snapshot of the model every frame
+    private TetrisSnapshot rendered; //snapshot drawn by the last frame
 
     int pieceWidth = 20; //width of block on display
     private double width; //height and width of canvas
     private double height;
 
+    //what is on the canvas, so a frame only redraws the blocks that changed since the last one
+    private long[] paintedRows; //row masks as they were painted, null before the first frame
+    private long paintedClears; //rows the board had cleared when it was painted
+    private int boardWidth, boardHeight; //size in blocks of the board painted
+
     /**
-     * Constructor
+     * Constructor. From now on the model is played on the view's game loop thread.
      *
      * @param model reference to tetris model
      * @param stage application stage
@@ -64,7 +76,6 @@ public class TetrisView {
      * Initialize interface
      */
     private void initUI() {
-        this.paused = false;
         this.stage.setTitle("CSC207 Tetris");
         this.width = this.model.getWidth()*pieceWidth + 2;
         this.height = this.model.getHeight()*pieceWidth + 2;
@@ -86,7 +97,7 @@ public class TetrisView {
         gameModeLabel.setFont(new Font(20));
         gameModeLabel.setStyle("-fx-text-fill: #e8e6e3");
 
-        final ToggleGroup toggleGroup = new ToggleGroup();
+        toggleGroup = new ToggleGroup();
 
         RadioButton pilotButtonHuman = new RadioButton("Human");
         pilotButtonHuman.setToggleGroup(toggleGroup);
@@ -95,11 +106,18 @@ public class TetrisView {
         pilotButtonHuman.setFont(new Font(16));
         pilotButtonHuman.setStyle("-fx-text-fill: #e8e6e3");
 
-        RadioButton pilotButtonComputer = new RadioButton("Computer (Default)");
-        pilotButtonComputer.setToggleGroup(toggleGroup);
-        pilotButtonComputer.setUserData(Color.SALMON);
-        pilotButtonComputer.setFont(new Font(16));
-        pilotButtonComputer.setStyle("-fx-text-fill: #e8e6e3");
+        VBox scoreBox = new VBox(20, scoreLabel, gameModeLabel, pilotButtonHuman);
+
+        //one button for each pilot in the registry; the button's user data is the pilot's name
+        for (String name : PilotRegistry.getNames()) {
+            RadioButton pilotButtonComputer = new RadioButton(
+                    name.equals(PilotRegistry.DEFAULT) ? "Computer (Default)" : "Computer (" + name + ")");
+            pilotButtonComputer.setToggleGroup(toggleGroup);
+            pilotButtonComputer.setUserData(name);
+            pilotButtonComputer.setFont(new Font(16));
+            pilotButtonComputer.setStyle("-fx-text-fill: #e8e6e3");
+            scoreBox.getChildren().add(pilotButtonComputer);
+        }
 
         scoreLabel.setText("Score is: 0");
         scoreLabel.setFont(new Font(20));
@@ -148,36 +166,42 @@ public class TetrisView {
         vBox.setPadding(new Insets(20, 20, 20, 20));
         vBox.setAlignment(Pos.TOP_CENTER);
 
-        VBox scoreBox = new VBox(20, scoreLabel, gameModeLabel, pilotButtonHuman, pilotButtonComputer);
         scoreBox.setPadding(new Insets(20, 20, 20, 20));
         vBox.setAlignment(Pos.TOP_CENTER);
 
         toggleGroup.selectedToggleProperty().addListener((observable, oldVal, newVal) -> swapPilot(newVal));
 
-        //timeline structures the animation, and speed between application "ticks"
-        timeline = new Timeline(new KeyFrame(Duration.seconds(0.25), e -> updateBoard()));
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
+        //the game loop ticks the model at a fixed rate on its own thread, and the renderer
+        //draws whatever it last published on every frame, so neither waits for the other
+        gameLoop = new GameLoop(model);
+        gameLoop.start();
+        renderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                updateBoard();
+            }
+        };
+        renderer.start();
 
         //configure this such that you start a new game when the user hits the newButton
         //Make sure to return the focus to the borderPane once you're done!
         newButton.setOnAction(e -> {
-            model.newGame();
-            if (this.paused) this.paused = false;
+            gameLoop.post(TetrisModel::newGame);
+            gameLoop.setPaused(false);
             borderPane.requestFocus();
         });
 
         //configure this such that you restart the game when the user hits the startButton
         //Make sure to return the focus to the borderPane once you're done!
         startButton.setOnAction(e -> {
-            this.paused = false;
+            gameLoop.setPaused(false);
             borderPane.requestFocus();
         });
 
         //configure this such that you pause the game when the user hits the stopButton
         //Make sure to return the focus to the borderPane once you're done!
         stopButton.setOnAction(e -> {
-            this.paused = true;
+            gameLoop.setPaused(true);
             borderPane.requestFocus();
         });
 
@@ -195,11 +219,11 @@ public class TetrisView {
             borderPane.requestFocus();
         });
 
-        //configure this such that you adjust the speed of the timeline to a value that
+        //configure this such that you adjust the speed of the game loop to a value that
         //ranges between 0 and 3 times the default rate per model tick.  Make sure to return the
         //focus to the borderPane once you're done!
         slider.setOnMouseReleased(e -> {
-            timeline.setRate(slider.getValue() * 0.03);
+            gameLoop.setRate(slider.getValue() * 0.03);
             borderPane.requestFocus();
         });
 
@@ -212,11 +236,12 @@ public class TetrisView {
         borderPane.setOnKeyReleased(new EventHandler<KeyEvent>() {
             @Override
             public void handle(KeyEvent k) {
+                //key presses are queued for the game loop, which runs them before its next tick
                 switch (k.getCode()) {
-                    case UP -> model.modelTick(TetrisModel.MoveType.ROTATE);
-                    case DOWN -> model.modelTick(TetrisModel.MoveType.DROP);
-                    case LEFT -> model.modelTick(TetrisModel.MoveType.LEFT);
-                    case RIGHT -> model.modelTick(TetrisModel.MoveType.RIGHT);
+                    case UP -> gameLoop.post(m -> m.modelTick(TetrisModel.MoveType.ROTATE));
+                    case DOWN -> gameLoop.post(m -> m.modelTick(TetrisModel.MoveType.DROP));
+                    case LEFT -> gameLoop.post(m -> m.modelTick(TetrisModel.MoveType.LEFT));
+                    case RIGHT -> gameLoop.post(m -> m.modelTick(TetrisModel.MoveType.RIGHT));
                 }
             }
         });
@@ -239,34 +264,79 @@ public class TetrisView {
     private void swapPilot(Toggle value) {
         RadioButton chk = (RadioButton)value.getToggleGroup().getSelectedToggle();
         String strVal = chk.getText();
-        if (strVal.equals("Computer (Default)")){
-            this.model.setAutoPilotMode();
-            gameModeLabel.setText("Player is: Computer (Default)");
-        } else if (strVal.equals("Human")) {
-            this.model.setHumanPilotMode();
+        if (strVal.equals("Human")) {
+            gameLoop.post(TetrisModel::setHumanPilotMode);
             gameModeLabel.setText("Player is: Human");
+        } else {
+            TetrisPilot pilot = newPilot((String) chk.getUserData());
+            gameLoop.post(m -> usePilot(m, pilot));
+            gameModeLabel.setText("Player is: " + strVal);
         }
         borderPane.requestFocus(); //give the focus back to the pane with the blocks.
     }
 
     /**
-     * Update board (paint pieces and score info)
+     * Swap the model being played, e.g. when a game is loaded
+     *
+     * @param model model to play from now on
+     */
+    void setModel(TetrisModel model) {
+        //a loaded model comes with a default pilot, so give it the one chosen on screen
+        Object selected = toggleGroup.getSelectedToggle().getUserData();
+        if (selected instanceof String) {
+            usePilot(model, newPilot((String) selected));
+        } else {
+            model.setHumanPilotMode();
+        }
+        this.model = model;
+        gameLoop.setModel(model);
+    }
+
+    /**
+     * Make a pilot from the registry with a budget for each move of a share of the tick interval,
+     * which follows the speed slider, so an expensive pilot on a loaded machine falls back to greedy moves.
+     *
+     * @param name name of the pilot in the registry
+     */
+    private static TetrisPilot newPilot(String name) {
+        BudgetedPilot pilot = PilotRegistry.create(name, (long) (PILOT_BUDGET * GameLoop.TICK_NANOS));
+        pilot.setTickFraction(PILOT_BUDGET); //the game loop passes on the tick interval before every tick
+        return pilot;
+    }
+
+    private static void usePilot(TetrisModel model, TetrisPilot pilot) {
+        model.setPilot(pilot);
+        model.setAutoPilotMode();
+    }
+
+    /**
+     * Pause or resume the game
+     *
+     * @param paused true to pause
+     */
+    void setPaused(boolean paused) {
+        gameLoop.setPaused(paused);
+    }
+
+    /**
+     * Update board (paint pieces and score info), if the game has moved on since the last frame
      */
     private void updateBoard() {
-        if (this.paused != true) {
-            paintBoard();
-            this.model.modelTick(TetrisModel.MoveType.DOWN);
-            updateScore();
+        TetrisSnapshot snapshot = gameLoop.getSnapshot();
+        if (snapshot != rendered) {
+            paintBoard(snapshot);
+            updateScore(snapshot);
+            rendered = snapshot;
         }
     }
 
     /**
      * Update score on UI
+     *
+     * @param snapshot state of the game to show
      */
-    private void updateScore() {
-        if (this.paused != true) {
-            scoreLabel.setText("Score is: " + model.getScore() + "\nPieces placed:" + model.getCount());
-        }
+    private void updateScore(TetrisSnapshot snapshot) {
+        scoreLabel.setText("Score is: " + snapshot.getScore() + "\nPieces placed:" + snapshot.getCount());
     }
 
     /**
@@ -279,47 +349,72 @@ public class TetrisView {
         return (int) Math.round((x)*dX());
     }
     private final float dX() {
-        return( ((float)(this.width-2)) / this.model.getBoard().getWidth() );
+        return( ((float)(this.width-2)) / this.boardWidth );
     }
     private final float dY() {
-        return( ((float)(this.height-2)) / this.model.getBoard().getHeight() );
+        return( ((float)(this.height-2)) / this.boardHeight );
     }
 
     /**
-     * Draw the board
+     * Draw the board. Only the blocks that changed since the last frame are drawn,
+     * unless rows were cleared, which repaints the whole board.
+     *
+     * @param board state of the game to draw
      */
-    public void paintBoard() {
+    public void paintBoard(TetrisSnapshot board) {
+        if (paintedRows == null || board.getWidth() != boardWidth || board.getHeight() != boardHeight
+                || board.getRowsCleared() != paintedClears) {
+            paintBackground(board);
+        }
+
+        // Factor a few things out to help the optimizer
+        final int dx = Math.round(dX()-2);
+        final int dy = Math.round(dY()-2);
+        final int bHeight = board.getHeight();
+        final long columns = -1L >>> (TetrisBoard.MAX_WIDTH - board.getWidth()); //bits of the columns on the board
+
+        // Blank the blocks that were emptied, then draw the ones that were filled, so the fill is set twice per frame
+        gc.setFill(Color.GREEN);
+        for (int y = 0; y < bHeight; y++) {
+            long emptied = paintedRows[y] & ~board.getRowMask(y) & columns;
+            while (emptied != 0) {
+                gc.fillRect(xPixel(Long.numberOfTrailingZeros(emptied))+1, yPixel(y)+1, dx, dy);
+                emptied &= emptied - 1;
+            }
+        }
+        gc.setFill(Color.RED);
+        for (int y = 0; y < bHeight; y++) {
+            long row = board.getRowMask(y) & columns;
+            long filled = row & ~paintedRows[y];
+            while (filled != 0) {
+                gc.fillRect(xPixel(Long.numberOfTrailingZeros(filled))+1, yPixel(y)+1, dx, dy);
+                filled &= filled - 1;
+            }
+            paintedRows[y] = row;
+        }
+    }
+
+    /**
+     * Draw the empty board, and remember that no blocks are on the canvas.
+     *
+     * @param board state of the game about to be painted
+     */
+    private void paintBackground(TetrisSnapshot board) {
+        boardWidth = board.getWidth();
+        boardHeight = board.getHeight();
 
         // Draw a rectangle around the whole screen
         gc.setStroke(Color.GREEN);
         gc.setFill(Color.GREEN);
         gc.fillRect(0, 0, this.width-1, this.height-1);
 
-        // Draw the line separating the top area on the screen
+        // Draw the line separating the top area on the screen; blocks are drawn inside their cells so they never cover it
         gc.setStroke(Color.BLACK);
-        int spacerY = yPixel(this.model.getBoard().getHeight() - this.model.BUFFERZONE - 1);
+        int spacerY = yPixel(board.getHeight() - this.model.BUFFERZONE - 1);
         gc.strokeLine(0, spacerY, this.width-1, spacerY);
 
-        // Factor a few things out to help the optimizer
-        final int dx = Math.round(dX()-2);
-        final int dy = Math.round(dY()-2);
-        final int bWidth = this.model.getBoard().getWidth();
-
-        int x, y;
-        // Loop through and draw all the blocks; sizes of blocks are calibrated relative to screen size
-        for (x=0; x<bWidth; x++) {
-            int left = xPixel(x);	// the left pixel
-            // draw from 0 up to the col height
-            final int yHeight = this.model.getBoard().getColumnHeight(x);
-            for (y=0; y<yHeight; y++) {
-                if (this.model.getBoard().getGrid(x, y)) {
-                    gc.setFill(Color.RED);
-                    gc.fillRect(left+1, yPixel(y)+1, dx, dy);
-                    gc.setFill(Color.GREEN);
-                }
-            }
-        }
-
+        paintedClears = board.getRowsCleared();
+        paintedRows = new long[board.getHeight()];
     }
 
     /**